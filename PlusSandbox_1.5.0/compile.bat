@@ -10,7 +10,7 @@ if not exist "src" (
 
 if not exist "saves" mkdir saves
 
-javac -d . src/Main.java
+javac -d . src/*.java
 
 if %errorlevel% == 0 (
     echo Компиляция успешна!
@@ -0,0 +1,126 @@
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.util.function.Consumer;
+
+// Активная отрисовка: поток симуляции сам рисует кадр в Canvas через BufferStrategy
+// и показывает его, не дожидаясь, пока EDT обработает repaint().
+// Включается свойством -Dsandbox.activeRendering=true, -Dsandbox.vsync=true просит
+// переключение страниц (flip): там, где система его дает, показ кадра ждет обратного хода луча.
+// Если flip недоступен, используется обычная стратегия с копированием (blit).
+//
+// Замеряется время показа кадра (рисование в буфер + show) и задержка от ввода до экрана:
+// сколько прошло от события мыши до показа первого кадра, в котором оно уже учтено.
+public class CanvasPresenter extends Canvas {
+    private static final long serialVersionUID = 1L;
+    private static final long STATS_WINDOW_NANOS = 1_000_000_000L;
+
+    private final boolean vsync;
+    private BufferStrategy strategy;
+    private boolean pageFlipping;
+
+    private long windowStart = System.nanoTime();
+    private int windowFrames;
+    private long windowPresentSum;
+    private long windowPresentMax;
+    private long windowLatencySum;
+    private int windowLatencyCount;
+
+    private volatile float averagePresentMs;
+    private volatile float maxPresentMs;
+    private volatile float inputLatencyMs;
+
+    public CanvasPresenter(int width, int height, boolean vsync) {
+        this.vsync = vsync;
+        setPreferredSize(new Dimension(width, height));
+        setBackground(Color.BLACK);
+        setFocusable(true);
+        // Окно само перерисовывается каждый кадр, системные запросы на перерисовку не нужны
+        setIgnoreRepaint(true);
+    }
+
+    // Рисует и показывает кадр. inputTime - время самого раннего ввода, учтенного в кадре
+    // (System.nanoTime), или 0. Возвращает false, если окно еще не показано на экране
+    public boolean present(Consumer<Graphics> painter, long inputTime) {
+        if (!isDisplayable()) return false;
+        if (strategy == null) {
+            createStrategy();
+        }
+
+        long start = System.nanoTime();
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                try {
+                    painter.accept(g);
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        // На X11 без этого кадр может застрять в очереди команд оконной системы
+        Toolkit.getDefaultToolkit().sync();
+        long end = System.nanoTime();
+
+        recordFrame(end - start, inputTime > 0 ? end - inputTime : -1, end);
+        return true;
+    }
+
+    private void createStrategy() {
+        if (vsync) {
+            try {
+                BufferCapabilities flip = new BufferCapabilities(
+                        new ImageCapabilities(true), new ImageCapabilities(true),
+                        BufferCapabilities.FlipContents.UNDEFINED);
+                createBufferStrategy(2, flip);
+                pageFlipping = true;
+            } catch (AWTException e) {
+                // Flip не поддерживается - остаемся на копировании
+                createBufferStrategy(2);
+            }
+        } else {
+            createBufferStrategy(2);
+        }
+        strategy = getBufferStrategy();
+        pageFlipping = pageFlipping && strategy.getCapabilities().isPageFlipping();
+    }
+
+    private void recordFrame(long presentNanos, long latencyNanos, long now) {
+        windowFrames++;
+        windowPresentSum += presentNanos;
+        windowPresentMax = Math.max(windowPresentMax, presentNanos);
+        if (latencyNanos >= 0) {
+            windowLatencySum += latencyNanos;
+            windowLatencyCount++;
+        }
+
+        if (now - windowStart >= STATS_WINDOW_NANOS) {
+            averagePresentMs = windowPresentSum / (float) windowFrames / 1_000_000f;
+            maxPresentMs = windowPresentMax / 1_000_000f;
+            inputLatencyMs = windowLatencyCount > 0 ? windowLatencySum / (float) windowLatencyCount / 1_000_000f : 0;
+            windowStart = now;
+            windowFrames = 0;
+            windowPresentSum = 0;
+            windowPresentMax = 0;
+            windowLatencySum = 0;
+            windowLatencyCount = 0;
+        }
+    }
+
+    public boolean isPageFlipping() {
+        return pageFlipping;
+    }
+
+    public float averagePresentMs() {
+        return averagePresentMs;
+    }
+
+    public float maxPresentMs() {
+        return maxPresentMs;
+    }
+
+    // Средняя задержка от ввода до показа за последнюю секунду (0 - ввода не было)
+    public float inputLatencyMs() {
+        return inputLatencyMs;
+    }
+}
@@ -0,0 +1,278 @@
+import java.util.Arrays;
+
+// Плоское хранилище клеток мира.
+// Все клетки лежат в одном массиве построчно (индекс = y * cols + x),
+// поэтому проход по строке идет подряд по памяти.
+//
+// Вся информация о клетке упакована в одно слово int:
+//   биты 0-7   - ID элемента
+//   биты 8-15  - нагрев (0..255)
+//   биты 16-22 - оставшаяся жизнь огня (0..127)
+//   биты 23-31 - гниение мяса (0..511)
+// Поэтому перемещение частицы - это копия одного числа, а не восьми, как с отдельными сетками.
+//
+// Физика обновляет сетку на месте. Каждая запись помечает клетку номером текущего тика,
+// чтобы частица, уже сдвинутая или измененная в этом тике, не обрабатывалась повторно,
+// и будит чанк вокруг клетки (см. ChunkScheduler). Смена элемента обновляет маски соседства.
+//
+// Сыпучие клетки, которые SLEEP_TICKS тиков подряд лежали без движения и без реакций, засыпают
+// (счетчик rest, отдельно от слова клетки: он относится к месту, а не к частице). Спящую клетку физика
+// пропускает, даже если ее чанк активен. Сыпучие клетки падают только в пустоту, поэтому
+// освободившаяся клетка будит три клетки над собой, а записанная - только себя. Огонь, лаву
+// или воду рядом спящая клетка видит по маскам соседей (NeighbourMasks.calm) и сразу просыпается.
+//
+// Для отрисовки мир дополнительно разбит на плитки TILE_SIZE x TILE_SIZE: любая запись в клетку
+// (включая нагрев, огонь и гниение) помечает ее плитку номером текущего кадра отрисовки.
+// Отрисовка перерисовывает только плитки, помеченные после прошлого кадра (см. WorldRenderer.update).
+// Номер кадра свой, а не номер тика: на паузе тики стоят, а кисть все равно меняет клетки.
+// Пересчет света тоже сдвигает этот номер и так же находит плитки, менявшиеся с прошлого
+// пересчета (см. SandboxEngine.updateLighting): сравнение "не меньше сохраненного номера"
+// от лишних сдвигов не ломается.
+public class CellGrid {
+    public static final int TILE_SIZE = ChunkScheduler.CHUNK_SIZE;
+    public static final int SLEEP_TICKS = 4;
+    
+    public final int cols;
+    public final int rows;
+    public final ChunkScheduler chunks;
+    public final NeighbourMasks masks;
+    public final int tileCols;
+    public final int tileRows;
+    private final int[] cells;
+    private final int[] stamps;
+    // Сколько тиков подряд клетка пролежала без дела (до SLEEP_TICKS)
+    private final byte[] rest;
+    private final int[] tileStamps;
+    private int generation = 1;
+    // Номер отметок плиток. volatile: его двигают отрисовка и пересчет света, а читают все, кто пишет в сетку
+    private volatile int tileEpoch = 1;
+
+    public CellGrid(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        this.chunks = new ChunkScheduler(cols, rows);
+        this.masks = new NeighbourMasks(cols, rows);
+        this.cells = new int[cols * rows];
+        this.stamps = new int[cols * rows];
+        this.rest = new byte[cols * rows];
+        this.tileCols = (cols + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileRows = (rows + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileStamps = new int[tileCols * tileRows];
+    }
+
+    public int index(int x, int y) {
+        return y * cols + x;
+    }
+
+    public int xOf(int index) {
+        return index % cols;
+    }
+
+    public int yOf(int index) {
+        return index / cols;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < cols && y >= 0 && y < rows;
+    }
+
+    public int size() {
+        return cells.length;
+    }
+
+    private static final int ELEMENT_MASK = 0xFF;
+    private static final int HEAT_SHIFT = 8;
+    private static final int HEAT_MAX = 0xFF;
+    private static final int FIRE_SHIFT = 16;
+    private static final int FIRE_MAX = 0x7F;
+    private static final int DECAY_SHIFT = 23;
+    private static final int DECAY_MAX = 0x1FF;
+
+    public int get(int x, int y) {
+        return cells[y * cols + x] & ELEMENT_MASK;
+    }
+
+    public int get(int index) {
+        return cells[index] & ELEMENT_MASK;
+    }
+
+    // Меняет только элемент: нагрев, огонь и гниение остаются, как и раньше в отдельных сетках
+    public void set(int x, int y, int element) {
+        int index = y * cols + x;
+        int old = cells[index] & ELEMENT_MASK;
+        cells[index] = (cells[index] & ~ELEMENT_MASK) | element;
+        stamps[index] = generation;
+        markTileChanged(x, y);
+        chunks.markChanged(x, y);
+        rest[index] = 0;
+        if (element == SandboxEngine.EMPTY) {
+            wakeAbove(index, x);
+        }
+        if (old != element) {
+            masks.changed(x, y, old, element);
+        }
+    }
+
+    public void set(int index, int element) {
+        set(index % cols, index / cols, element);
+    }
+
+    // Переносит клетку целиком вместе с нагревом, огнем и гниением, старое место становится пустым
+    public void move(int fromX, int fromY, int toX, int toY) {
+        int from = fromY * cols + fromX;
+        int to = toY * cols + toX;
+        int element = cells[from] & ELEMENT_MASK;
+        cells[to] = cells[from];
+        cells[from] = 0;
+        masks.changed(fromX, fromY, element, 0);
+        masks.changed(toX, toY, 0, element);
+        stamps[from] = generation;
+        stamps[to] = generation;
+        markTileChanged(fromX, fromY);
+        markTileChanged(toX, toY);
+        chunks.markChanged(fromX, fromY);
+        chunks.markChanged(toX, toY);
+        // Переносят только в пустую клетку, а у пустой счетчик всегда 0
+        rest[from] = 0;
+        wakeAbove(from, fromX);
+    }
+
+    public int heat(int x, int y) {
+        return (cells[y * cols + x] >>> HEAT_SHIFT) & HEAT_MAX;
+    }
+
+    public void setHeat(int x, int y, int heat) {
+        setField(x, y, HEAT_SHIFT, HEAT_MAX, heat);
+    }
+
+    public void addHeat(int x, int y, int delta) {
+        setHeat(x, y, heat(x, y) + delta);
+    }
+
+    public int fireLife(int x, int y) {
+        return (cells[y * cols + x] >>> FIRE_SHIFT) & FIRE_MAX;
+    }
+
+    public void setFireLife(int x, int y, int life) {
+        setField(x, y, FIRE_SHIFT, FIRE_MAX, life);
+    }
+
+    public void addFireLife(int x, int y, int delta) {
+        setFireLife(x, y, fireLife(x, y) + delta);
+    }
+
+    public int decay(int x, int y) {
+        return (cells[y * cols + x] >>> DECAY_SHIFT) & DECAY_MAX;
+    }
+
+    public void setDecay(int x, int y, int decay) {
+        setField(x, y, DECAY_SHIFT, DECAY_MAX, decay);
+    }
+
+    public void addDecay(int x, int y, int delta) {
+        setDecay(x, y, decay(x, y) + delta);
+    }
+
+    // Значение обрезается по ширине поля, чтобы не залезть в соседние биты
+    private void setField(int x, int y, int shift, int max, int value) {
+        if (value < 0) value = 0;
+        if (value > max) value = max;
+        int index = y * cols + x;
+        int updated = (cells[index] & ~(max << shift)) | (value << shift);
+        if (updated != cells[index]) {
+            cells[index] = updated;
+            markTileChanged(x, y);
+        }
+    }
+
+    // Начало нового тика: все прошлые отметки сразу становятся устаревшими без очистки массива
+    public void beginTick() {
+        generation++;
+        chunks.beginTick();
+    }
+
+    // Клетку уже записали в текущем тике
+    public boolean isStamped(int index) {
+        return stamps[index] == generation;
+    }
+    
+    // Клетка спит: физика ее пропускает
+    public boolean isAsleep(int index, int element) {
+        return rest[index] >= SLEEP_TICKS && masks.calm(index, element);
+    }
+    
+    // Клетка этот тик пролежала без дела (поток, который ее обновляет)
+    public void rest(int index) {
+        if (rest[index] < SLEEP_TICKS) {
+            rest[index]++;
+        }
+    }
+    
+    // Клетка опустела: будим те, что могут в нее упасть - прямо над ней и по диагоналям
+    private void wakeAbove(int index, int x) {
+        int above = index - cols;
+        if (above < 0) return;
+        rest[above] = 0;
+        if (x > 0) rest[above - 1] = 0;
+        if (x < cols - 1) rest[above + 1] = 0;
+    }
+    
+    // Номер тика, в котором клетку записали последний раз
+    public int stamp(int index) {
+        return stamps[index];
+    }
+    
+    public int generation() {
+        return generation;
+    }
+    
+    // Клетка выглядит иначе (например, поменялся свет): плитку нужно перерисовать
+    public void markTileChanged(int x, int y) {
+        tileStamps[(y / TILE_SIZE) * tileCols + x / TILE_SIZE] = tileEpoch;
+    }
+    
+    // Номер кадра отрисовки, в котором плитка менялась последний раз
+    public int tileStamp(int tile) {
+        return tileStamps[tile];
+    }
+    
+    // Начинает новый кадр отрисовки и возвращает номер закончившегося.
+    // Записи, которые идут одновременно с этим, могут получить и старый, и новый номер
+    public int advanceTileEpoch() {
+        return tileEpoch++;
+    }
+
+    public void clear() {
+        Arrays.fill(cells, 0);
+        Arrays.fill(rest, (byte) 0);
+        masks.rebuild(cells);
+        chunks.wakeAll();
+        Arrays.fill(tileStamps, tileEpoch);
+    }
+
+    // Формат сохранений остается прежним: int[x][y]
+    public int[][] toArray() {
+        int[][] result = new int[cols][rows];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                result[x][y] = get(x, y);
+            }
+        }
+        return result;
+    }
+
+    public void loadFrom(int[][] data) {
+        Arrays.fill(cells, 0);
+        Arrays.fill(rest, (byte) 0);
+        int w = Math.min(cols, data.length);
+        for (int x = 0; x < w; x++) {
+            int h = Math.min(rows, data[x].length);
+            for (int y = 0; y < h; y++) {
+                cells[y * cols + x] = data[x][y] & ELEMENT_MASK;
+            }
+        }
+        masks.rebuild(cells);
+        chunks.wakeAll();
+        Arrays.fill(tileStamps, tileEpoch);
+    }
+}
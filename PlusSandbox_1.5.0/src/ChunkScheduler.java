@@ -0,0 +1,157 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Планировщик активных чанков.
+// Мир разбит на квадраты CHUNK_SIZE x CHUNK_SIZE. У каждого чанка есть "грязный" прямоугольник -
+// область клеток, которую нужно обновить. Любая запись в сетку расширяет прямоугольник чанка
+// (и соседних чанков, если запись у границы) на WAKE_MARGIN клеток вокруг.
+// Чанк обрабатывается, если он менялся в одном из двух последних тиков, иначе он спит.
+//
+// В многопоточном режиме соседние чанки обновляются разными потоками и могут одновременно
+// расширять прямоугольник общего соседа, поэтому min/max копятся через CAS.
+// Прямоугольник почти всегда уже покрывает клетку, и тогда запись сводится к четырем чтениям.
+public class ChunkScheduler {
+    public static final int CHUNK_SIZE = 16;
+    // Дальность, на которой клетка реагирует на соседей (проверка воды идет в радиусе 2)
+    private static final int WAKE_MARGIN = 2;
+
+    public final int chunkCols;
+    public final int chunkRows;
+    private final int cols;
+    private final int rows;
+
+    // Прямоугольники хранятся по 4 числа на чанк: minX, minY, maxX, maxY (включительно).
+    // Пустой прямоугольник - minX > maxX
+    private AtomicIntegerArray current;  // обрабатывается в этом тике
+    private AtomicIntegerArray next;     // копится во время тика для следующего
+    private AtomicIntegerArray previous; // был "next" в прошлом тике
+
+    public ChunkScheduler(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        this.chunkCols = (cols + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.chunkRows = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int n = chunkCols * chunkRows * 4;
+        current = new AtomicIntegerArray(n);
+        next = new AtomicIntegerArray(n);
+        previous = new AtomicIntegerArray(n);
+        clearRects(current);
+        clearRects(next);
+        clearRects(previous);
+        wakeAll();
+    }
+
+    // Начало тика: обрабатываем все, что менялось в двух последних тиках
+    public void beginTick() {
+        AtomicIntegerArray oldPrevious = previous;
+        for (int i = 0; i < current.length(); i += 4) {
+            current.set(i, Math.min(next.get(i), previous.get(i)));
+            current.set(i + 1, Math.min(next.get(i + 1), previous.get(i + 1)));
+            current.set(i + 2, Math.max(next.get(i + 2), previous.get(i + 2)));
+            current.set(i + 3, Math.max(next.get(i + 3), previous.get(i + 3)));
+        }
+        previous = next;
+        next = oldPrevious;
+        clearRects(next);
+    }
+
+    // Клетка изменилась или хочет обновиться снова: будим ее окрестность
+    public void markChanged(int x, int y) {
+        markArea(x - WAKE_MARGIN, y - WAKE_MARGIN, x + WAKE_MARGIN, y + WAKE_MARGIN);
+    }
+
+    public void markArea(int x0, int y0, int x1, int y1) {
+        if (x0 < 0) x0 = 0;
+        if (y0 < 0) y0 = 0;
+        if (x1 >= cols) x1 = cols - 1;
+        if (y1 >= rows) y1 = rows - 1;
+        if (x0 > x1 || y0 > y1) return;
+
+        int cx0 = x0 / CHUNK_SIZE;
+        int cx1 = x1 / CHUNK_SIZE;
+        int cy0 = y0 / CHUNK_SIZE;
+        int cy1 = y1 / CHUNK_SIZE;
+        for (int cy = cy0; cy <= cy1; cy++) {
+            int top = Math.max(y0, cy * CHUNK_SIZE);
+            int bottom = Math.min(y1, cy * CHUNK_SIZE + CHUNK_SIZE - 1);
+            for (int cx = cx0; cx <= cx1; cx++) {
+                int left = Math.max(x0, cx * CHUNK_SIZE);
+                int right = Math.min(x1, cx * CHUNK_SIZE + CHUNK_SIZE - 1);
+                int r = (cy * chunkCols + cx) * 4;
+                lowerTo(next, r, left);
+                lowerTo(next, r + 1, top);
+                raiseTo(next, r + 2, right);
+                raiseTo(next, r + 3, bottom);
+            }
+        }
+    }
+
+    public void wakeAll() {
+        markArea(0, 0, cols - 1, rows - 1);
+    }
+
+    public int chunkIndex(int cx, int cy) {
+        return cy * chunkCols + cx;
+    }
+
+    public boolean isActive(int chunk) {
+        return current.get(chunk * 4) <= current.get(chunk * 4 + 2);
+    }
+
+    public int minX(int chunk) {
+        return current.get(chunk * 4);
+    }
+
+    public int minY(int chunk) {
+        return current.get(chunk * 4 + 1);
+    }
+
+    public int maxX(int chunk) {
+        return current.get(chunk * 4 + 2);
+    }
+
+    public int maxY(int chunk) {
+        return current.get(chunk * 4 + 3);
+    }
+
+    public int activeChunkCount() {
+        int count = 0;
+        for (int c = 0; c < chunkCols * chunkRows; c++) {
+            if (isActive(c)) count++;
+        }
+        return count;
+    }
+
+    // Сколько клеток попадает в грязные прямоугольники этого тика
+    public int activeCellCount() {
+        int count = 0;
+        for (int c = 0; c < chunkCols * chunkRows; c++) {
+            if (isActive(c)) {
+                count += (maxX(c) - minX(c) + 1) * (maxY(c) - minY(c) + 1);
+            }
+        }
+        return count;
+    }
+
+    private static void lowerTo(AtomicIntegerArray rects, int i, int value) {
+        int old = rects.get(i);
+        while (value < old && !rects.compareAndSet(i, old, value)) {
+            old = rects.get(i);
+        }
+    }
+
+    private static void raiseTo(AtomicIntegerArray rects, int i, int value) {
+        int old = rects.get(i);
+        while (value > old && !rects.compareAndSet(i, old, value)) {
+            old = rects.get(i);
+        }
+    }
+
+    private static void clearRects(AtomicIntegerArray rects) {
+        for (int i = 0; i < rects.length(); i += 4) {
+            rects.set(i, Integer.MAX_VALUE);
+            rects.set(i + 1, Integer.MAX_VALUE);
+            rects.set(i + 2, Integer.MIN_VALUE);
+            rects.set(i + 3, Integer.MIN_VALUE);
+        }
+    }
+}
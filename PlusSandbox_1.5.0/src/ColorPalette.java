@@ -0,0 +1,150 @@
+// Заранее посчитанные цвета клеток для отрисовки.
+// У каждого элемента есть несколько вариантов цвета:
+//   огонь          - 3 цвета мерцания
+//   металлы и т.п. - нагрев 0..30 (дальше цвет уже не меняется)
+//   мясо           - гниение 0..250 сверх порога 250
+//   остальные      - один вариант
+// Для каждого варианта хранится цвет без света и его непрозрачный исходный цвет. Свет цветной
+// (см. LightColor), поэтому освещенная клетка светлеет по каждому каналу отдельно: прибавка
+// к каналу берется из таблицы по уровню света канала и значению канала. Цвет клетки при
+// отрисовке - одно чтение по индексу для темной клетки и четыре для освещенной, без Color.
+//
+// Цвета уже смешаны с черным фоном (см. WorldRenderer). Как и раньше с new Color(r, g, b),
+// цвет с любым эффектом непрозрачен, а без эффектов сохраняет прозрачность элемента.
+public final class ColorPalette {
+    public static final int MAX_HEAT = 30;
+    public static final int DECAY_THRESHOLD = 250;
+    public static final int MAX_DECAY = 250;
+    public static final int MAX_LIGHT = 100;
+
+    // Огонь мерцает красным, оранжевым и желтым (Color.RED, Color.ORANGE, Color.YELLOW)
+    private static final int[] FIRE_COLORS = {0xFFFF0000, 0xFFFFC800, 0xFFFFFF00};
+    public static final int FIRE_VARIANTS = FIRE_COLORS.length;
+
+    // Цвета элемента: variantBase[element] + вариант
+    private static final int[] VARIANT_BASE = new int[ElementType.MAX_ID];
+    private static final int[] COLORS;
+    // Исходный цвет варианта без прозрачности: от него считается освещенный цвет
+    private static final int[] LIT_BASE;
+    // Канал цвета под светом: LIGHTEN[уровень света канала * 256 + канал]
+    private static final byte[] LIGHTEN = new byte[(MAX_LIGHT + 1) * 256];
+
+    static {
+        int variants = 0;
+        for (int id = 0; id < ElementType.MAX_ID; id++) {
+            VARIANT_BASE[id] = variants;
+            variants += variantCount(id);
+        }
+
+        COLORS = new int[variants];
+        LIT_BASE = new int[variants];
+        for (int id = 0; id < ElementType.MAX_ID; id++) {
+            for (int variant = 0; variant < variantCount(id); variant++) {
+                int row = VARIANT_BASE[id] + variant;
+                int base = variantColor(id, variant);
+                boolean effect = id == SandboxEngine.FIRE || variant > 0;
+                COLORS[row] = blendOnBlack(effect ? base | 0xFF000000 : base);
+                LIT_BASE[row] = base & 0xFFFFFF;
+            }
+        }
+
+        for (int light = 0; light <= MAX_LIGHT; light++) {
+            for (int channel = 0; channel < 256; channel++) {
+                LIGHTEN[light * 256 + channel] = (byte) applyLightEffect(channel, light);
+            }
+        }
+    }
+
+    private ColorPalette() {
+    }
+
+    // Цвет пикселя (RGB без альфы) для элемента, его варианта и света клетки (LightColor).
+    // Как и раньше, освещенная клетка непрозрачна даже у прозрачного элемента
+    public static int color(int element, int variant, int light) {
+        int row = VARIANT_BASE[element] + variant;
+        if (light == 0) return COLORS[row];
+        int base = LIT_BASE[row];
+        int r = LIGHTEN[LightColor.red(light) * 256 + red(base)] & 0xFF;
+        int g = LIGHTEN[LightColor.green(light) * 256 + green(base)] & 0xFF;
+        int b = LIGHTEN[LightColor.blue(light) * 256 + blue(base)] & 0xFF;
+        return (r << 16) | (g << 8) | b;
+    }
+
+    // Вариант по нагреву для элементов с флагом SHOWS_HEAT
+    public static int heatVariant(int heat) {
+        return Math.min(heat, MAX_HEAT);
+    }
+
+    // Вариант по гниению мяса: 0 - еще свежее
+    public static int decayVariant(int decay) {
+        if (decay <= DECAY_THRESHOLD) return 0;
+        return Math.min(decay - DECAY_THRESHOLD, MAX_DECAY);
+    }
+
+    // Размер таблиц в байтах (для статистики)
+    public static int sizeInBytes() {
+        return COLORS.length * 4 + LIT_BASE.length * 4 + LIGHTEN.length;
+    }
+
+    private static int variantCount(int id) {
+        if (ElementType.get(id) == null) return 1;
+        if (id == SandboxEngine.FIRE) return FIRE_VARIANTS;
+        if (id == SandboxEngine.MEAT) return MAX_DECAY + 1;
+        if (ElementType.has(id, ElementType.SHOWS_HEAT)) return MAX_HEAT + 1;
+        return 1;
+    }
+
+    private static int variantColor(int id, int variant) {
+        if (id == SandboxEngine.FIRE) return FIRE_COLORS[variant];
+        int argb = ElementType.COLORS[id];
+        if (variant == 0) return argb;
+        if (id == SandboxEngine.MEAT) {
+            return applyDecayEffect(argb, Math.min(1.0f, variant / (float) MAX_DECAY));
+        }
+        return applyHeatEffect(argb, Math.min(1.0f, variant / (float) MAX_HEAT));
+    }
+
+    private static int applyHeatEffect(int argb, float heatFactor) {
+        int r = Math.min(255, red(argb) + (int) (100 * heatFactor));
+        int g = Math.max(0, green(argb) - (int) (50 * heatFactor));
+        return opaque(r, g, blue(argb));
+    }
+
+    private static int applyDecayEffect(int argb, float decayFactor) {
+        int r = Math.max(0, red(argb) - (int) (50 * decayFactor));
+        int g = Math.max(0, green(argb) - (int) (30 * decayFactor));
+        int b = Math.max(0, blue(argb) - (int) (70 * decayFactor));
+        return opaque(r, g, b);
+    }
+
+    // Один канал цвета под светом этого канала: как раньше для всех трех сразу
+    private static int applyLightEffect(int channel, int lightLevel) {
+        float lightFactor = Math.min(1.0f, lightLevel / 100.0f);
+        return Math.min(255, channel + (int) ((255 - channel) * lightFactor * 0.3f));
+    }
+
+    private static int blendOnBlack(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) return argb & 0xFFFFFF;
+        int r = red(argb) * a / 255;
+        int g = green(argb) * a / 255;
+        int b = blue(argb) * a / 255;
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int red(int argb) {
+        return (argb >> 16) & 0xFF;
+    }
+
+    private static int green(int argb) {
+        return (argb >> 8) & 0xFF;
+    }
+
+    private static int blue(int argb) {
+        return argb & 0xFF;
+    }
+
+    private static int opaque(int r, int g, int b) {
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
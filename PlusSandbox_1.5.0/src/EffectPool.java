@@ -0,0 +1,181 @@
+// Частицы эффектов: вспышки взрывов, искры и обломки.
+// Раньше каждый взрыв был объектом Explosion в ArrayList, удалялся через removeIf с лямбдой,
+// а на экране рисовался отдельным fillOval с new Color на каждый кадр. Теперь все частицы
+// лежат "структурой массивов" в пуле с заранее выделенной емкостью: добавление - запись
+// в конец массивов, удаление - перенос последней частицы на место умершей. Ни взрыв,
+// ни искра ничего не выделяют в куче, поэтому цепные реакции урана не дергают сборщик мусора.
+//
+// Вспышка влияет на физику (тыквы и арбузы в ее радиусе взрываются), искры и обломки - только
+// картинка. Поэтому при переполнении пула новая вспышка вытесняет искру или обломок,
+// а новые искры и обломки просто не появляются.
+//
+// Вспышки лежат в начале пула (0..flashCount), искры и обломки - после них. inFlash спрашивают
+// все тыквы и арбузы каждый тик, и ему не нужно перебирать тысячи искр после большого взрыва.
+//
+// Пул живет в потоке симуляции; рисует частицы WorldRenderer прямо в растр кадра.
+public final class EffectPool {
+    public static final int FLASH = 0;
+    public static final int SPARK = 1;
+    public static final int DEBRIS = 2;
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    // Сколько тиков видна вспышка
+    public static final int FLASH_LIFE = 20;
+    // Ускорение свободного падения для искр и обломков, клеток за тик^2
+    private static final float GRAVITY = 0.15f;
+    private static final int SPARK_MIN_LIFE = 8;
+    private static final int SPARK_MAX_LIFE = 20;
+    private static final int DEBRIS_MIN_LIFE = 25;
+    private static final int DEBRIS_MAX_LIFE = 50;
+    // Доля разрушенных клеток, из которых вылетает обломок
+    private static final int DEBRIS_CHANCE = Rng.threshold(0.1f);
+    // Цвета искр от горячей к остывающей
+    private static final int[] SPARK_COLORS = {0xFFFFC0, 0xFFD040, 0xFF8000, 0xC03000};
+
+    final byte[] kind;
+    // Положение и скорость в клетках (вспышка стоит на месте)
+    final float[] x;
+    final float[] y;
+    final float[] vx;
+    final float[] vy;
+    final int[] life;
+    final int[] maxLife;
+    // Радиус вспышки в клетках, для искры и обломка не используется
+    final int[] radius;
+    // Цвет искры или обломка (RGB)
+    final int[] color;
+    int count;
+    // Вспышки занимают первые flashCount мест
+    int flashCount;
+
+    // Только для разброса искр и обломков: физика от него не зависит
+    private final Rng random = new Rng(System.nanoTime());
+
+    public EffectPool(int capacity) {
+        kind = new byte[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        life = new int[capacity];
+        maxLife = new int[capacity];
+        radius = new int[capacity];
+        color = new int[capacity];
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int capacity() {
+        return kind.length;
+    }
+
+    public void clear() {
+        count = 0;
+        flashCount = 0;
+    }
+
+    // Вспышка взрыва в клетке x, y
+    public void addFlash(int cellX, int cellY, int flashRadius) {
+        if (count < kind.length) {
+            // Первая искра или обломок уступает место вспышке и уходит в конец
+            move(flashCount, count++);
+        } else if (flashCount == count) {
+            // В пуле одни вспышки
+            return;
+        }
+        // В полном пуле вспышка просто занимает место первой искры или обломка
+        int i = flashCount++;
+        set(i, FLASH, cellX, cellY, 0, 0, FLASH_LIFE, 0);
+        radius[i] = flashRadius;
+    }
+
+    // Разлет искр из центра взрыва со скоростью до speed клеток за тик
+    public void addSparks(int cellX, int cellY, int sparks, float speed) {
+        for (int n = 0; n < sparks && count < kind.length; n++) {
+            double angle = random.nextInt(3600) * (Math.PI / 1800);
+            float v = speed * (0.3f + random.nextInt(700) / 1000f);
+            int lifetime = SPARK_MIN_LIFE + random.nextInt(SPARK_MAX_LIFE - SPARK_MIN_LIFE + 1);
+            set(count++, SPARK, cellX + 0.5f, cellY + 0.5f,
+                    (float) (Math.cos(angle) * v), (float) (Math.sin(angle) * v), lifetime, SPARK_COLORS[0]);
+        }
+    }
+
+    // Иногда выбрасывает обломок разрушенного элемента из клетки x, y прочь от центра взрыва
+    public void scatterDebris(int cellX, int cellY, int centerX, int centerY, int element) {
+        if (element == SandboxEngine.EMPTY || count == kind.length || !random.chance(DEBRIS_CHANCE)) return;
+        float dx = cellX - centerX;
+        float dy = cellY - centerY;
+        float length = Math.max(1f, (float) Math.sqrt(dx * dx + dy * dy));
+        float v = 0.4f + random.nextInt(600) / 1000f;
+        int lifetime = DEBRIS_MIN_LIFE + random.nextInt(DEBRIS_MAX_LIFE - DEBRIS_MIN_LIFE + 1);
+        set(count++, DEBRIS, cellX + 0.5f, cellY + 0.5f, dx / length * v, dy / length * v - 0.5f,
+                lifetime, ColorPalette.color(element, 0, 0));
+    }
+
+    // Один тик для всех частиц сразу
+    public void update(int cols, int rows) {
+        int i = 0;
+        while (i < count) {
+            int left = --life[i];
+            boolean alive = left > 0;
+            if (alive && kind[i] != FLASH) {
+                vy[i] += GRAVITY;
+                x[i] += vx[i];
+                y[i] += vy[i];
+                alive = x[i] >= 0 && x[i] < cols && y[i] >= 0 && y[i] < rows;
+                if (kind[i] == SPARK) {
+                    color[i] = SPARK_COLORS[(SPARK_COLORS.length - 1) - left * SPARK_COLORS.length / (maxLife[i] + 1)];
+                }
+            }
+            if (alive) {
+                i++;
+            } else if (i < flashCount) {
+                // Место вспышки занимает последняя вспышка, а ее место - последняя частица пула.
+                // Обе проверяются позже: на этой же позиции и дальше
+                int lastFlash = --flashCount;
+                move(lastFlash, i);
+                move(--count, lastFlash);
+            } else {
+                // Последняя частица занимает место умершей и проверяется на этой же позиции
+                move(--count, i);
+            }
+        }
+    }
+
+    // Попадает ли клетка в радиус какой-нибудь вспышки
+    public boolean inFlash(int cellX, int cellY) {
+        for (int i = 0; i < flashCount; i++) {
+            int dx = cellX - (int) x[i];
+            int dy = cellY - (int) y[i];
+            if (dx * dx + dy * dy <= radius[i] * radius[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void set(int i, int type, float px, float py, float pvx, float pvy, int lifetime, int rgb) {
+        kind[i] = (byte) type;
+        x[i] = px;
+        y[i] = py;
+        vx[i] = pvx;
+        vy[i] = pvy;
+        life[i] = lifetime;
+        maxLife[i] = lifetime;
+        color[i] = rgb;
+    }
+
+    private void move(int from, int to) {
+        kind[to] = kind[from];
+        x[to] = x[from];
+        y[to] = y[from];
+        vx[to] = vx[from];
+        vy[to] = vy[from];
+        life[to] = life[from];
+        maxLife[to] = maxLife[from];
+        radius[to] = radius[from];
+        color[to] = color[from];
+    }
+}
@@ -0,0 +1,68 @@
+import java.awt.event.KeyEvent;
+
+// Клавиши выбора элементов. Живут на стороне окна, а не в ElementType, чтобы движок
+// (SandboxEngine, HeadlessRunner) не тянул за собой AWT.
+// Строка таблицы: код клавиши KeyEvent и ID элемента.
+public final class ElementKeys {
+    private static final int[][] PLAIN = {
+        {KeyEvent.VK_1, SandboxEngine.SAND},
+        {KeyEvent.VK_2, SandboxEngine.WATER},
+        {KeyEvent.VK_3, SandboxEngine.LAVA},
+        {KeyEvent.VK_4, SandboxEngine.FIRE},
+        {KeyEvent.VK_5, SandboxEngine.EARTH},
+        {KeyEvent.VK_6, SandboxEngine.STONE},
+        {KeyEvent.VK_7, SandboxEngine.SMOKE},
+        {KeyEvent.VK_8, SandboxEngine.SEED},
+        {KeyEvent.VK_9, SandboxEngine.GRASS},
+        {KeyEvent.VK_Q, SandboxEngine.WOOD},
+        {KeyEvent.VK_W, SandboxEngine.ICE},
+        {KeyEvent.VK_0, SandboxEngine.ERASER},
+        {KeyEvent.VK_E, SandboxEngine.IRON},
+        {KeyEvent.VK_R, SandboxEngine.NITROGEN},
+        {KeyEvent.VK_T, SandboxEngine.UNBREAKABLE},
+        {KeyEvent.VK_Y, SandboxEngine.ACID},
+        {KeyEvent.VK_U, SandboxEngine.GLASS},
+        {KeyEvent.VK_I, SandboxEngine.DYNAMITE},
+        {KeyEvent.VK_O, SandboxEngine.GOLD},
+        {KeyEvent.VK_P, SandboxEngine.COPPER},
+        {KeyEvent.VK_A, SandboxEngine.SALT},
+        {KeyEvent.VK_S, SandboxEngine.CEMENT},
+        {KeyEvent.VK_D, SandboxEngine.RUBBER},
+        {KeyEvent.VK_F, SandboxEngine.GASOLINE},
+        {KeyEvent.VK_G, SandboxEngine.MERCURY},
+        {KeyEvent.VK_H, SandboxEngine.URANIUM},
+        {KeyEvent.VK_J, SandboxEngine.LAMP},
+        {KeyEvent.VK_K, SandboxEngine.MEAT},
+        {KeyEvent.VK_N, SandboxEngine.ROTTEN_MEAT},
+        {KeyEvent.VK_L, SandboxEngine.PUMPKIN},
+        {KeyEvent.VK_Z, SandboxEngine.WATERMELON},
+        {KeyEvent.VK_X, SandboxEngine.JUICE},
+        {KeyEvent.VK_C, SandboxEngine.PUMPKIN_SEED},
+        {KeyEvent.VK_V, SandboxEngine.WATERMELON_SEED},
+        {KeyEvent.VK_B, SandboxEngine.APPLE_SEED},
+        {KeyEvent.VK_M, SandboxEngine.CRUDE_OIL},
+        {KeyEvent.VK_COMMA, SandboxEngine.GAS},
+        {KeyEvent.VK_PERIOD, SandboxEngine.LIQUEFIED_GAS},
+        {KeyEvent.VK_SLASH, SandboxEngine.COAL},
+        {KeyEvent.VK_BACK_QUOTE, SandboxEngine.SANDSTONE},
+    };
+
+    // С зажатым Alt
+    private static final int[][] ALT = {
+        {KeyEvent.VK_2, SandboxEngine.GRAY_SAND},
+        {KeyEvent.VK_1, SandboxEngine.PEAT},
+    };
+
+    private ElementKeys() {
+    }
+
+    // Элемент, выбираемый клавишей (с Alt или без), или -1
+    public static int forKey(int keyCode, boolean alt) {
+        for (int[] row : alt ? ALT : PLAIN) {
+            if (row[0] == keyCode) {
+                return row[1];
+            }
+        }
+        return -1;
+    }
+}
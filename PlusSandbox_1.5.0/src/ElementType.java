@@ -0,0 +1,119 @@
+// Реестр типов элементов: имя, цвет и флаги свойств (клавиши выбора - в ElementKeys, на стороне окна).
+// Таблицы индексируются по ID элемента, поэтому любое свойство - одно чтение из массива.
+// Само поведение остается в switch по ID (SandboxEngine.updateCell): это один tableswitch,
+// который JIT компилирует лучше, чем вызов через интерфейс с десятками реализаций.
+public final class ElementType {
+    // Флаги свойств
+    public static final int STATIC = 1;                // своего поведения нет, физика клетку пропускает
+    public static final int FALLS = 1 << 1;            // сыпучий, падает вниз
+    public static final int FLOWS = 1 << 2;            // жидкость, растекается в стороны
+    public static final int RISES = 1 << 3;            // поднимается вверх (огонь, дым, газ)
+    public static final int FLAMMABLE = 1 << 4;        // загорается от соседнего огня
+    public static final int TRANSMITS_LIGHT = 1 << 5;  // пропускает свет
+    public static final int BLAST_RESISTANT = 1 << 6;  // не разрушается обычным взрывом
+    public static final int INDESTRUCTIBLE = 1 << 7;   // не разрушается даже ядерным взрывом
+    public static final int HEATABLE = 1 << 8;         // кисть не сбрасывает накопленный нагрев
+    public static final int SHOWS_HEAT = 1 << 9;       // краснеет при нагреве
+    public static final int ALWAYS_ACTIVE = 1 << 10;   // меняется сам (случайно или по таймеру), чанк не засыпает
+    public static final int LEVELS = 1 << 11;          // жидкость, поверхность которой выравнивается целиком (см. LiquidBodies)
+    public static final int SLEEPS = 1 << 12;          // улежавшаяся клетка засыпает до перемен рядом (см. CellGrid)
+
+    public static final int MAX_ID = 64;
+
+    // Плоские таблицы для горячих циклов
+    public static final int[] FLAGS = new int[MAX_ID];
+    public static final int[] COLORS = new int[MAX_ID];
+    private static final ElementType[] TYPES = new ElementType[MAX_ID];
+
+    public final int id;
+    public final String name;
+    public final int argb;
+    public final int flags;
+
+    private ElementType(int id, String name, int argb, int flags) {
+        this.id = id;
+        this.name = name;
+        this.argb = argb;
+        this.flags = flags;
+    }
+
+    static {
+        register(SandboxEngine.EMPTY, "Пустота", rgb(0, 0, 0), STATIC | TRANSMITS_LIGHT);
+        register(SandboxEngine.SAND, "Песок", rgb(240, 230, 140), FALLS | FLAMMABLE | TRANSMITS_LIGHT | HEATABLE | SLEEPS);
+        register(SandboxEngine.WATER, "Вода", rgba(30, 144, 255, 180), FLOWS | LEVELS | TRANSMITS_LIGHT);
+        register(SandboxEngine.LAVA, "Лава", rgb(255, 69, 0), FLOWS | ALWAYS_ACTIVE);
+        register(SandboxEngine.FIRE, "Огонь", rgb(255, 0, 0), RISES | ALWAYS_ACTIVE);
+        register(SandboxEngine.EARTH, "Земля", rgb(139, 69, 19), FALLS | FLAMMABLE);
+        // Камень неподвижен и не плавится от лавы
+        register(SandboxEngine.STONE, "Камень", rgb(128, 128, 128), STATIC | BLAST_RESISTANT);
+        register(SandboxEngine.SMOKE, "Дым", rgba(105, 105, 105, 180), RISES | TRANSMITS_LIGHT | ALWAYS_ACTIVE);
+        register(SandboxEngine.SEED, "Семена", rgb(34, 139, 34), FALLS | FLAMMABLE | ALWAYS_ACTIVE);
+        register(SandboxEngine.GRASS, "Трава", rgb(50, 205, 50), FLAMMABLE | ALWAYS_ACTIVE);
+        register(SandboxEngine.WOOD, "Дерево", rgb(101, 67, 33), FLAMMABLE);
+        register(SandboxEngine.ICE, "Лёд", rgba(200, 230, 255, 220), 0);
+        register(SandboxEngine.OIL, "Масло", rgb(25, 25, 25), FLOWS | LEVELS);
+        register(SandboxEngine.ERASER, "Ластик", rgb(255, 255, 255), STATIC);
+        register(SandboxEngine.IRON, "Железо", rgb(192, 192, 192), BLAST_RESISTANT | HEATABLE | SHOWS_HEAT);
+        register(SandboxEngine.NITROGEN, "Жидкий азот", rgba(70, 130, 180, 200), FLOWS | TRANSMITS_LIGHT | ALWAYS_ACTIVE);
+        // Абсолютно нерушимая стена - не реагирует ни на что
+        register(SandboxEngine.UNBREAKABLE, "Нерушимая стена", rgb(50, 50, 50), STATIC | BLAST_RESISTANT | INDESTRUCTIBLE);
+        register(SandboxEngine.ACID, "Кислота", rgba(50, 255, 50, 200), FLOWS | LEVELS | ALWAYS_ACTIVE);
+        register(SandboxEngine.GLASS, "Стекло", rgba(200, 200, 255, 100), TRANSMITS_LIGHT);
+        register(SandboxEngine.DYNAMITE, "Динамит", rgb(178, 34, 34), 0);
+        register(SandboxEngine.GOLD, "Золото", rgb(255, 215, 0), BLAST_RESISTANT | HEATABLE | SHOWS_HEAT);
+        register(SandboxEngine.COPPER, "Медь", rgb(184, 115, 51), BLAST_RESISTANT | HEATABLE | SHOWS_HEAT);
+        register(SandboxEngine.SALT, "Соль", rgb(255, 255, 255), FALLS | SLEEPS);
+        register(SandboxEngine.CEMENT, "Цемент", rgb(210, 210, 210), FALLS | SLEEPS);
+        register(SandboxEngine.RUBBER, "Резина", rgb(40, 40, 40), FALLS | SLEEPS);
+        register(SandboxEngine.GASOLINE, "Бензин", rgba(255, 255, 0, 150), FLOWS | LEVELS);
+        register(SandboxEngine.MERCURY, "Ртуть", rgb(220, 220, 220), FLOWS | LEVELS);
+        register(SandboxEngine.URANIUM, "Уран", rgb(0, 255, 0), HEATABLE | SHOWS_HEAT | ALWAYS_ACTIVE);
+        register(SandboxEngine.MOLTEN_IRON, "Расплавленное железо", rgb(255, 100, 0), FLOWS | LEVELS | ALWAYS_ACTIVE);
+        register(SandboxEngine.MOLTEN_GOLD, "Расплавленное золото", rgb(255, 200, 0), FLOWS | LEVELS | ALWAYS_ACTIVE);
+        register(SandboxEngine.MOLTEN_COPPER, "Расплавленная медь", rgb(255, 150, 50), FLOWS | LEVELS | ALWAYS_ACTIVE);
+        // Лампа просто светится, свет обрабатывается в updateLighting
+        register(SandboxEngine.LAMP, "Лампа", rgb(255, 255, 200), STATIC);
+        register(SandboxEngine.MEAT, "Мясо", rgb(200, 50, 50), ALWAYS_ACTIVE);
+        register(SandboxEngine.ROTTEN_MEAT, "Гнилое мясо", rgb(100, 80, 50), FLAMMABLE | ALWAYS_ACTIVE);
+        register(SandboxEngine.PUMPKIN, "Тыква", rgb(255, 140, 0), 0);
+        register(SandboxEngine.WATERMELON, "Арбуз", rgb(0, 150, 0), 0);
+        register(SandboxEngine.JUICE, "Сок", rgba(255, 200, 100, 180), FLOWS | LEVELS | ALWAYS_ACTIVE);
+        register(SandboxEngine.PUMPKIN_SEED, "Семена тыквы", rgb(150, 100, 50), FALLS | ALWAYS_ACTIVE);
+        register(SandboxEngine.WATERMELON_SEED, "Семена арбуза", rgb(100, 150, 50), FALLS | ALWAYS_ACTIVE);
+        register(SandboxEngine.APPLE_SEED, "Семена яблони", rgb(120, 80, 40), FALLS | ALWAYS_ACTIVE);
+        register(SandboxEngine.CRUDE_OIL, "Нефть", rgb(20, 20, 20), FLOWS | ALWAYS_ACTIVE);
+        register(SandboxEngine.GAS, "Газ", rgba(100, 100, 255, 150), RISES | TRANSMITS_LIGHT | ALWAYS_ACTIVE);
+        register(SandboxEngine.LIQUEFIED_GAS, "Сжиженный газ", rgb(120, 120, 255), FLOWS | ALWAYS_ACTIVE);
+        register(SandboxEngine.COAL, "Уголь", rgb(30, 30, 30), HEATABLE | SHOWS_HEAT);
+        // Песчаник не реагирует на нагрев и не горит
+        register(SandboxEngine.SANDSTONE, "Песчаник", rgb(210, 180, 140), STATIC | BLAST_RESISTANT);
+        register(SandboxEngine.GRAY_SAND, "Серый песок", rgb(160, 160, 160), FALLS | SLEEPS);
+        register(SandboxEngine.PEAT, "Торф", rgb(80, 60, 40), FLAMMABLE);
+    }
+
+    private static void register(int id, String name, int argb, int flags) {
+        add(new ElementType(id, name, argb, flags));
+    }
+
+    private static void add(ElementType type) {
+        TYPES[type.id] = type;
+        FLAGS[type.id] = type.flags;
+        COLORS[type.id] = type.argb;
+    }
+
+    private static int rgb(int r, int g, int b) {
+        return rgba(r, g, b, 255);
+    }
+
+    private static int rgba(int r, int g, int b, int a) {
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    public static ElementType get(int id) {
+        return TYPES[id];
+    }
+
+    public static boolean has(int id, int flag) {
+        return (FLAGS[id] & flag) != 0;
+    }
+}
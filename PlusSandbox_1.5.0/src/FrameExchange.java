@@ -0,0 +1,60 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Передача готовых кадров от потока симуляции к потоку отрисовки Swing без блокировок.
+// Кадров три: "задний" пишет только поток симуляции, "передний" читает только EDT,
+// а третий лежит посередине в AtomicReference. Симуляция, дорисовав кадр, меняет его
+// на средний одним getAndSet; EDT, увидев, что средний кадр свежий, так же забирает его себе.
+// Никто никого не ждет, а EDT всегда рисует последний полностью готовый кадр
+// и никогда не видит кадр, в который в этот момент пишут.
+public class FrameExchange {
+    // Снимок экрана: видимая часть мира вместе с эффектами, в пикселях экрана
+    public static final class Frame {
+        public final BufferedImage image;
+        final int[] pixels;
+        // Версия каждой плитки экрана, нарисованная в этом кадре (см. WorldRenderer)
+        final int[] screenTileVersions;
+        // Кадр опубликован и EDT его еще не забрал
+        volatile boolean fresh;
+
+        Frame(int width, int height, int screenTiles) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            screenTileVersions = new int[screenTiles];
+            Arrays.fill(screenTileVersions, -1);
+        }
+    }
+
+    private final AtomicReference<Frame> middle;
+    private Frame back;  // только поток симуляции
+    private Frame front; // только EDT
+
+    public FrameExchange(int width, int height, int screenTiles) {
+        back = new Frame(width, height, screenTiles);
+        middle = new AtomicReference<>(new Frame(width, height, screenTiles));
+        front = new Frame(width, height, screenTiles);
+    }
+
+    // Кадр, в который сейчас можно рисовать (поток симуляции)
+    Frame back() {
+        return back;
+    }
+
+    // Отдает дорисованный кадр и получает взамен другой для следующего кадра (поток симуляции)
+    void publish() {
+        back.fresh = true;
+        back = middle.getAndSet(back);
+    }
+
+    // Последний готовый кадр (EDT)
+    public Frame latest() {
+        if (middle.get().fresh) {
+            front.fresh = false;
+            front = middle.getAndSet(front);
+            front.fresh = false;
+        }
+        return front;
+    }
+}
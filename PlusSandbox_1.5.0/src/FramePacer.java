@@ -0,0 +1,100 @@
+// Выдерживает частоту кадров по System.nanoTime и считает, насколько ровно идут кадры.
+// Thread.sleep на загруженной машине может проспать лишние миллисекунды, поэтому
+// большую часть ожидания спим, а последние SPIN_NANOS добираем коротким ожиданием в цикле.
+// Дедлайны идут с шагом кадра от старта, а не от конца прошлого ожидания, так что ошибки
+// sleep не накапливаются. Если отстали больше чем на кадр, пропущенные кадры не догоняем.
+//
+// Статистика за последнюю секунду: FPS, среднее и максимальное отклонение интервала
+// между кадрами от целевого (джиттер). Поля volatile - их читает поток отрисовки.
+public class FramePacer {
+    private static final long SPIN_NANOS = 1_500_000;
+    private static final long STATS_WINDOW_NANOS = 1_000_000_000L;
+
+    private final long frameNanos;
+    private long deadline;
+    private long lastFrame;
+
+    private long windowStart;
+    private int windowFrames;
+    private long windowJitterSum;
+    private long windowJitterMax;
+    private int windowMissed;
+
+    private volatile int fps;
+    private volatile float averageJitterMs;
+    private volatile float maxJitterMs;
+    private volatile int missedFrames;
+
+    public FramePacer(int framesPerSecond) {
+        this.frameNanos = 1_000_000_000L / Math.max(1, framesPerSecond);
+    }
+
+    public void start() {
+        long now = System.nanoTime();
+        deadline = now;
+        lastFrame = now;
+        windowStart = now;
+    }
+
+    public long frameNanos() {
+        return frameNanos;
+    }
+
+    // Ждет начала следующего кадра и записывает, когда он на самом деле начался
+    public void waitForNextFrame() throws InterruptedException {
+        deadline += frameNanos;
+        long now = System.nanoTime();
+        if (now - deadline > frameNanos) {
+            // Кадр занял больше двух интервалов: начинаем отсчет заново
+            deadline = now;
+            windowMissed++;
+        }
+
+        long remaining = deadline - now;
+        if (remaining > SPIN_NANOS) {
+            Thread.sleep((remaining - SPIN_NANOS) / 1_000_000);
+        }
+        while (System.nanoTime() - deadline < 0) {
+            Thread.yield();
+        }
+
+        recordFrame(System.nanoTime());
+    }
+
+    private void recordFrame(long now) {
+        long jitter = Math.abs((now - lastFrame) - frameNanos);
+        lastFrame = now;
+        windowFrames++;
+        windowJitterSum += jitter;
+        windowJitterMax = Math.max(windowJitterMax, jitter);
+
+        if (now - windowStart >= STATS_WINDOW_NANOS) {
+            fps = windowFrames;
+            averageJitterMs = windowJitterSum / (float) windowFrames / 1_000_000f;
+            maxJitterMs = windowJitterMax / 1_000_000f;
+            missedFrames = windowMissed;
+            windowStart = now;
+            windowFrames = 0;
+            windowJitterSum = 0;
+            windowJitterMax = 0;
+            windowMissed = 0;
+        }
+    }
+
+    public int fps() {
+        return fps;
+    }
+
+    public float averageJitterMs() {
+        return averageJitterMs;
+    }
+
+    public float maxJitterMs() {
+        return maxJitterMs;
+    }
+
+    // Сколько раз за последнюю секунду отставание превысило кадр
+    public int missedFrames() {
+        return missedFrames;
+    }
+}
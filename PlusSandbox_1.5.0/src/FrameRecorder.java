@@ -0,0 +1,201 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+// Запись опубликованных кадров на диск для просмотра прогонов, без записи экрана.
+// Поток симуляции только копирует растр кадра в свободный буфер из пула и отдает его
+// кодировщикам в фоне; сам он никогда не ждет ни диска, ни кодировщиков.
+// Если свободного буфера нет, кадр пропускается и считается в droppedFrames().
+//
+// Форматы:
+//   PNG - папка с файлами frame_000000.png, ... (номер - порядковый номер кадра,
+//         по дырам в нумерации видно, какие кадры пропущены). Кодируют несколько потоков.
+//   RAW - один файл frames.raw: заголовок "PSRAW", ширина, высота (int), затем на каждый
+//         кадр его номер (int) и ширина * высота * 3 байта RGB построчно. Пишет один поток,
+//         чтобы кадры шли в файле по порядку.
+//
+// Потоки кодировщиков - демоны, поэтому перед выходом из программы запись нужно остановить
+// через stop: он ждет, пока кодировщики допишут принятые кадры, и закрывает файл RAW.
+public class FrameRecorder {
+    public enum Format { PNG, RAW }
+
+    public static final int DEFAULT_BUFFERS = 8;
+    // Сколько stop ждет кодировщиков при выходе из программы
+    public static final long STOP_TIMEOUT_MILLIS = 10_000;
+    private static final byte[] RAW_MAGIC = {'P', 'S', 'R', 'A', 'W'};
+
+    private final File directory;
+    private final Format format;
+    private final int width;
+    private final int height;
+    private final ArrayBlockingQueue<BufferedImage> freeBuffers;
+    private final ExecutorService encoders;
+    // Поток файла RAW: пишет поток кодировщика, закрывает он же или stop (под rawLock)
+    private DataOutputStream rawStream;
+    private final Object rawLock = new Object();
+    private byte[] rawRow;
+
+    // Пишет только поток симуляции, читает и окно для счетчиков
+    private volatile int frameNumber = 0;
+    private final AtomicInteger writtenFrames = new AtomicInteger();
+    private final AtomicInteger droppedFrames = new AtomicInteger();
+    private final AtomicInteger failedFrames = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public FrameRecorder(File directory, Format format, int width, int height, int buffers, int encoderThreads) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Не удалось создать папку для записи: " + directory);
+        }
+        this.directory = directory;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.freeBuffers = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            freeBuffers.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+
+        int threads = format == Format.RAW ? 1 : Math.max(1, encoderThreads);
+        this.encoders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "frame-encoder");
+            thread.setDaemon(true);
+            // Запись не должна отнимать время у симуляции и отрисовки
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        if (format == Format.RAW) {
+            rawStream = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, "frames.raw")), 1 << 16));
+            rawStream.write(RAW_MAGIC);
+            rawStream.writeInt(width);
+            rawStream.writeInt(height);
+            rawRow = new byte[width * 3];
+        }
+    }
+
+    // Кадр width x height из массива пикселей RGB (поток симуляции). Не блокирует:
+    // без свободного буфера кадр пропускается
+    public void offer(int[] pixels) {
+        if (closed.get()) return;
+        int number = frameNumber++;
+        BufferedImage buffer = freeBuffers.poll();
+        if (buffer == null) {
+            droppedFrames.incrementAndGet();
+            return;
+        }
+        System.arraycopy(pixels, 0, ((DataBufferInt) buffer.getRaster().getDataBuffer()).getData(), 0, width * height);
+        try {
+            encoders.execute(() -> encode(buffer, number));
+        } catch (RejectedExecutionException e) {
+            // Запись остановили из другого потока (выход из программы), пока кадр копировался
+            freeBuffers.add(buffer);
+            droppedFrames.incrementAndGet();
+        }
+    }
+
+    private void encode(BufferedImage buffer, int number) {
+        try {
+            if (format == Format.PNG) {
+                ImageIO.write(buffer, "png", new File(directory, String.format("frame_%06d.png", number)));
+            } else {
+                writeRaw(buffer, number);
+            }
+            writtenFrames.incrementAndGet();
+        } catch (IOException e) {
+            // Один испорченный кадр не повод останавливать запись - считаем и идем дальше
+            failedFrames.incrementAndGet();
+        } finally {
+            freeBuffers.add(buffer);
+        }
+    }
+
+    // Кадр пишется под блокировкой целиком, чтобы closeRaw не закрыл файл посреди кадра
+    private void writeRaw(BufferedImage buffer, int number) throws IOException {
+        int[] pixels = ((DataBufferInt) buffer.getRaster().getDataBuffer()).getData();
+        synchronized (rawLock) {
+            rawStream.writeInt(number);
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int rgb = pixels[row + x];
+                    rawRow[x * 3] = (byte) (rgb >> 16);
+                    rawRow[x * 3 + 1] = (byte) (rgb >> 8);
+                    rawRow[x * 3 + 2] = (byte) rgb;
+                }
+                rawStream.write(rawRow);
+            }
+        }
+    }
+
+    // Заканчивает запись: уже принятые кадры дописываются в фоне, новые не принимаются.
+    // Поток симуляции не ждет, пока кодировщики закончат
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (rawStream != null) {
+            encoders.execute(this::closeRaw);
+        }
+        encoders.shutdown();
+    }
+
+    // Останавливает запись и ждет до millis, пока кодировщики допишут принятые кадры, затем
+    // сбрасывает и закрывает файл RAW. Для выхода из программы: кодировщики - демоны, и без этого
+    // кадры из очереди пропали бы, а frames.raw остался бы недописанным.
+    // Возвращает false, если кодировщики не успели: недописанные кадры считаются в failedFrames
+    public boolean stop(long millis) throws InterruptedException {
+        close();
+        boolean finished = encoders.awaitTermination(millis, TimeUnit.MILLISECONDS);
+        if (rawStream != null) {
+            closeRaw();
+        }
+        return finished;
+    }
+
+    // Запись закрыта и кодировщики дописали все принятые кадры
+    public boolean isFinished() {
+        return encoders.isTerminated();
+    }
+
+    // Повторное закрытие ничего не делает
+    private void closeRaw() {
+        synchronized (rawLock) {
+            try {
+                rawStream.close();
+            } catch (IOException e) {
+                failedFrames.incrementAndGet();
+            }
+        }
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    public int offeredFrames() {
+        return frameNumber;
+    }
+
+    public int writtenFrames() {
+        return writtenFrames.get();
+    }
+
+    public int droppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public int failedFrames() {
+        return failedFrames.get();
+    }
+}
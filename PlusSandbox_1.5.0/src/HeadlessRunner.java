@@ -0,0 +1,96 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+// Запуск симуляции без окна на полной скорости, например на сервере.
+// Запуск: java -cp PlusSandbox.jar HeadlessRunner [ширина] [высота] [тики] [seed] [файл мира|-] [потоки]
+// Файл мира - сохранение из папки saves (*.sand); "-" или без файла - случайная сцена из seed.
+// Потоки: 0 - однопоточная физика, иначе многопоточная с этим числом потоков.
+// В конце печатает время, тики в секунду, клетки в секунду и сколько клеток не пусто.
+// С -Dsandbox.capture=папка после каждого тика кадр (клетка - пиксель) отдается FrameRecorder
+// (-Dsandbox.captureFormat=png|raw). Запись не тормозит прогон: не успевшие кадры пропускаются.
+public class HeadlessRunner {
+    public static void main(String[] args) {
+        int cols = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 150;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        String worldFile = args.length > 4 && !args[4].equals("-") ? args[4] : null;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+        SandboxEngine engine = new SandboxEngine(cols, rows);
+        engine.setSeed(seed);
+        engine.setParallelPhysics(threads > 0, Math.max(1, threads));
+        if (worldFile != null) {
+            try {
+                engine.loadWorld(new File(worldFile));
+            } catch (IOException e) {
+                System.err.println("Не удалось загрузить мир " + worldFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+        } else {
+            PhysicsBenchmark.fillScene(engine, new Random(seed));
+        }
+
+        System.out.println("Мир " + cols + "x" + rows + ", тиков: " + ticks + ", seed: " + seed
+                + ", мир: " + (worldFile != null ? worldFile : "случайная сцена")
+                + ", потоков: " + (threads > 0 ? threads : "1 (однопоточно)"));
+
+        WorldRenderer renderer = null;
+        FrameRecorder recorder = null;
+        Viewport view = new Viewport(0, 0, 0);
+        String captureDir = System.getProperty("sandbox.capture");
+        if (captureDir != null) {
+            FrameRecorder.Format format = FrameRecorder.Format.valueOf(System.getProperty("sandbox.captureFormat", "png").toUpperCase());
+            try {
+                recorder = new FrameRecorder(new File(captureDir), format, cols, rows,
+                        FrameRecorder.DEFAULT_BUFFERS, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            } catch (IOException e) {
+                System.err.println("Не удалось начать запись в " + captureDir + ": " + e.getMessage());
+                System.exit(1);
+            }
+            renderer = new WorldRenderer(cols, rows, cols, rows);
+            renderer.setRecorder(recorder);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            engine.step();
+            if (renderer != null) {
+                engine.updateLighting();
+                renderer.update(engine, view);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        engine.setParallelPhysics(false, 1);
+        if (recorder != null) {
+            try {
+                if (!recorder.stop(FrameRecorder.STOP_TIMEOUT_MILLIS)) {
+                    System.err.println("Запись не успела дописать все кадры");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("время: %.3f с, %.3f мс/тик%n", seconds, elapsed / 1e6 / ticks);
+        System.out.printf("тиков в секунду: %.1f%n", ticks / seconds);
+        System.out.printf("клеток в секунду: %.3e%n", (double) cols * rows * ticks / seconds);
+        System.out.println("непустых клеток: " + countFilled(engine));
+        if (recorder != null) {
+            System.out.println("записано кадров: " + recorder.writtenFrames() + " в " + recorder.directory()
+                    + ", пропущено: " + recorder.droppedFrames() + ", ошибок: " + recorder.failedFrames());
+        }
+    }
+
+    private static int countFilled(SandboxEngine engine) {
+        int filled = 0;
+        for (int y = 0; y < engine.rows; y++) {
+            for (int x = 0; x < engine.cols; x++) {
+                if (engine.getElement(x, y) != SandboxEngine.EMPTY) filled++;
+            }
+        }
+        return filled;
+    }
+}
@@ -0,0 +1,294 @@
+import java.util.Arrays;
+
+// Тела жидкостей: связные (по сторонам) области одной жидкости с флагом LEVELS.
+// Раньше жидкость выравнивалась только через tryFlow - не больше клетки вбок за тик, а верхний
+// слой пруда вечно прыгал влево-вправо и вверх-вниз, так что чанки у поверхности никогда не спали.
+//
+// Теперь клетка, которой некуда падать, просит выровнять свое тело (requestLevelling). После
+// физики тика (level) тело находится заливкой целиком, и его поверхность выравнивается разом:
+// клетки с самой верхней строки тела переносятся в самые нижние свободные места рядом с ним,
+// ниже верхней строки. Место - пустая клетка вплотную сбоку от тела или над ним (так уровень
+// в сообщающихся сосудах выравнивается, даже если один из них ниже другого). Место не опускается
+// до опоры и не порождает новых мест в том же тике: перенесенная клетка дальше падает и течет
+// обычными tryMove и tryFlow, поэтому прорыв плотины и водопад видно, а через щель в стене
+// жидкость проходит по клетке за тик, а не прыгает на дно соседней полости.
+//
+// Тело засыпает в тике, когда переносить уже нечего: ни одного места ниже верхней строки,
+// ни одной падающей клетки тела и ни одного места сбоку, под которым пусто (туда переливается
+// край). Выровненное тело спит: его клетки больше не прыгают (tryFlow сразу возвращает false),
+// поэтому ничего не пишут, и их чанки засыпают. Тело просыпается, когда его касаются:
+//   - клетку тела переписали (упала, сдвинулась, в нее что-то попало) - это видно по отметке тика
+//     клетки в CellGrid, она становится новее тика, в котором тело уснуло;
+//   - рядом с клеткой тела открылось место ниже поверхности (hasLowerOpening);
+//   - к телу прилила новая жидкость: ее клетки не спят, просят выравнивания, и заливка от них
+//     заново захватывает все тело.
+public class LiquidBodies {
+    // Сколько клеток можно залить за тик; тело, которое уже начали, доводится до конца.
+    // Остальные просьбы ждут следующего тика
+    private static final int CELLS_PER_TICK = 1 << 18;
+    // Номера тел выдаются подряд; когда они кончаются, все метки сбрасываются
+    private static final int MAX_BODIES = 1 << 16;
+    private static final int NOT_SETTLED = Integer.MIN_VALUE;
+
+    private final CellGrid grid;
+    private final int cols;
+    private final int rows;
+
+    // Тело клетки (0 - ни в каком). Метки остаются и после того, как клетка ушла, поэтому
+    // тело клетки действительно, только если клетку не переписывали после выравнивания
+    private final int[] bodyOf;
+    // Для тела: тик, в котором оно выровнено и уснуло (NOT_SETTLED - не спит), и верхняя строка
+    private final int[] settledAt = new int[MAX_BODIES];
+    private final int[] top = new int[MAX_BODIES];
+    private int nextBody = 1;
+
+    // Чанки, где есть клетки, просящие выравнивания. Пишут потоки физики, читает level
+    private final boolean[] requested;
+
+    // Рабочие массивы заливки: клетки тела, перенесенные в этом тике клетки
+    // и корзины по строкам - верх тела и свободные места
+    private int[] cells = new int[256];
+    private int[] movedCells = new int[64];
+    private final int[][] surfaceRows;
+    private final int[] surfaceSizes;
+    private final int[][] openingRows;
+    private final int[] openingSizes;
+    // Строки, в корзины которых что-то клали: их и очищаем после тела
+    private int firstUsedRow;
+    private int lastUsedRow;
+    // Тело еще движется: клетка тела падает или край переливается в пустоту (addOpenings)
+    private boolean flowing;
+
+    public LiquidBodies(CellGrid grid) {
+        this.grid = grid;
+        this.cols = grid.cols;
+        this.rows = grid.rows;
+        this.bodyOf = new int[cols * rows];
+        this.requested = new boolean[grid.chunks.chunkCols * grid.chunks.chunkRows];
+        this.surfaceRows = new int[rows][];
+        this.openingRows = new int[rows][];
+        for (int y = 0; y < rows; y++) {
+            surfaceRows[y] = new int[8];
+            openingRows[y] = new int[8];
+        }
+        this.surfaceSizes = new int[rows];
+        this.openingSizes = new int[rows];
+        Arrays.fill(settledAt, NOT_SETTLED);
+    }
+
+    // Весь мир заменили (очистка, загрузка): все тела забываются
+    public void reset() {
+        Arrays.fill(bodyOf, 0);
+        Arrays.fill(settledAt, NOT_SETTLED);
+        Arrays.fill(requested, false);
+        nextBody = 1;
+    }
+
+    // Клетка в выровненном спящем теле
+    public boolean isSettled(int x, int y) {
+        int index = y * cols + x;
+        return settledAt[bodyOf[index]] >= grid.stamp(index);
+    }
+
+    // Открылось ли рядом с клеткой спящего тела место ниже его поверхности: сбоку или сверху пусто
+    // и либо пустая клетка ниже верхней строки тела, либо под ней тоже пусто (жидкость стечет вниз)
+    public boolean hasLowerOpening(int x, int y) {
+        return lowerOpening(x, y, bodyOf[y * cols + x]);
+    }
+
+    private boolean lowerOpening(int x, int y, int body) {
+        return openingBelowTop(x - 1, y, body) || openingBelowTop(x + 1, y, body) || (y > 0 && openingBelowTop(x, y - 1, body));
+    }
+
+    private boolean openingBelowTop(int x, int y, int body) {
+        if (x < 0 || x >= cols || grid.get(x, y) != SandboxEngine.EMPTY) return false;
+        return y > top[body] || (y < rows - 1 && grid.get(x, y + 1) == SandboxEngine.EMPTY);
+    }
+
+    // Будит тело клетки. Из потоков физики: гонка тут безобидна, все пишут одно и то же
+    public void unsettle(int x, int y) {
+        int body = bodyOf[y * cols + x];
+        if (body != 0) {
+            settledAt[body] = NOT_SETTLED;
+        }
+    }
+
+    // Клетке некуда падать, а ее тело не спит: выровнять его после тика
+    public void requestLevelling(int x, int y) {
+        requested[(y / ChunkScheduler.CHUNK_SIZE) * grid.chunks.chunkCols + x / ChunkScheduler.CHUNK_SIZE] = true;
+    }
+
+    // Выравнивает тела, которые просили об этом в этом тике (поток симуляции, после физики)
+    public void level() {
+        if (nextBody > MAX_BODIES / 2) {
+            // Номера кончаются: забываем все тела разом, проснувшиеся выровняются заново
+            Arrays.fill(bodyOf, 0);
+            Arrays.fill(settledAt, NOT_SETTLED);
+            nextBody = 1;
+        }
+        int firstBody = nextBody;
+        int generation = grid.generation();
+        int budget = CELLS_PER_TICK;
+        ChunkScheduler chunks = grid.chunks;
+        for (int chunk = 0; chunk < requested.length && budget > 0; chunk++) {
+            if (!requested[chunk]) continue;
+            requested[chunk] = false;
+            int x0 = (chunk % chunks.chunkCols) * ChunkScheduler.CHUNK_SIZE;
+            int y0 = (chunk / chunks.chunkCols) * ChunkScheduler.CHUNK_SIZE;
+            int x1 = Math.min(cols, x0 + ChunkScheduler.CHUNK_SIZE);
+            int y1 = Math.min(rows, y0 + ChunkScheduler.CHUNK_SIZE);
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int index = y * cols + x;
+                    int element = grid.get(index);
+                    // Клетку уже залили в этом тике или ее тело спит
+                    if (!ElementType.has(element, ElementType.LEVELS) || bodyOf[index] >= firstBody || isSettled(x, y)) continue;
+                    if (nextBody == MAX_BODIES) {
+                        // Номеров на этот тик не хватило - остальное в следующем
+                        requested[chunk] = true;
+                        return;
+                    }
+                    budget -= levelBody(index, element, generation);
+                }
+            }
+        }
+    }
+
+    // Заливка тела от клетки seed и выравнивание его поверхности. Возвращает размер тела
+    private int levelBody(int seed, int element, int generation) {
+        int body = nextBody++;
+        int count = fill(seed, element, body);
+        firstUsedRow = rows;
+        lastUsedRow = -1;
+        flowing = false;
+        int moved = 0;
+
+        int surfaceTop = rows;
+        int openingBottom = -1;
+        for (int n = 0; n < count; n++) {
+            int index = cells[n];
+            int x = index % cols;
+            int y = index / cols;
+            if (y == 0 || bodyOf[index - cols] != body) {
+                surfaceTop = Math.min(surfaceTop, addSurface(index, y));
+            }
+            openingBottom = Math.max(openingBottom, addOpenings(x, y));
+        }
+
+        // Самую верхнюю клетку тела - в самое нижнее место, пока место ниже верха
+        while (true) {
+            while (surfaceTop < rows && surfaceSizes[surfaceTop] == 0) surfaceTop++;
+            while (openingBottom >= 0 && openingSizes[openingBottom] == 0) openingBottom--;
+            if (surfaceTop >= rows || openingBottom <= surfaceTop) break;
+
+            int to = openingRows[openingBottom][--openingSizes[openingBottom]];
+            // Одно место могло попасть в корзину несколько раз
+            if (grid.get(to) != SandboxEngine.EMPTY) continue;
+            int from = surfaceRows[surfaceTop][--surfaceSizes[surfaceTop]];
+            if (bodyOf[from] != body || grid.get(from) != element) continue;
+
+            int fromX = from % cols;
+            int fromY = from / cols;
+            int toX = to % cols;
+            int toY = to / cols;
+            grid.move(fromX, fromY, toX, toY);
+            bodyOf[from] = 0;
+            bodyOf[to] = body;
+            if (moved == movedCells.length) {
+                movedCells = Arrays.copyOf(movedCells, moved * 2);
+            }
+            movedCells[moved++] = to;
+            // Клетка под ушедшей стала верхом тела, а пришедшая сама стала верхом. Новых мест
+            // пришедшая не открывает: дальше она течет сама, со следующего тика
+            if (fromY < rows - 1 && bodyOf[from + cols] == body) {
+                addSurface(from + cols, fromY + 1);
+            }
+            if (toY == 0 || bodyOf[to - cols] != body) {
+                surfaceTop = Math.min(surfaceTop, addSurface(to, toY));
+            }
+        }
+
+        top[body] = surfaceTop;
+        // Пока тело падает, переливается или перенесенной клетке есть куда течь дальше, оно
+        // не спит и выравнивается снова в следующем тике - клетки сами попросят об этом из tryFlow
+        for (int n = 0; n < moved && !flowing; n++) {
+            int x = movedCells[n] % cols;
+            int y = movedCells[n] / cols;
+            flowing = (y < rows - 1 && grid.get(x, y + 1) == SandboxEngine.EMPTY) || lowerOpening(x, y, body);
+        }
+        settledAt[body] = flowing ? NOT_SETTLED : generation;
+
+        // Корзины этого тела больше не нужны
+        for (int y = firstUsedRow; y <= lastUsedRow; y++) {
+            surfaceSizes[y] = 0;
+            openingSizes[y] = 0;
+        }
+        return count;
+    }
+
+    // Заливка в ширину по клеткам той же жидкости, метит их номером тела
+    private int fill(int seed, int element, int body) {
+        int count = 0;
+        cells[count++] = seed;
+        bodyOf[seed] = body;
+        for (int n = 0; n < count; n++) {
+            int index = cells[n];
+            int x = index % cols;
+            int y = index / cols;
+            if (cells.length - count < 4) {
+                cells = Arrays.copyOf(cells, cells.length * 2);
+            }
+            if (y > 0) count = visit(index - cols, element, body, count);
+            if (x < cols - 1) count = visit(index + 1, element, body, count);
+            if (y < rows - 1) count = visit(index + cols, element, body, count);
+            if (x > 0) count = visit(index - 1, element, body, count);
+        }
+        return count;
+    }
+
+    private int visit(int index, int element, int body, int count) {
+        if (bodyOf[index] != body && grid.get(index) == element) {
+            bodyOf[index] = body;
+            cells[count++] = index;
+        }
+        return count;
+    }
+
+    private int addSurface(int index, int y) {
+        surfaceSizes[y] = push(surfaceRows, surfaceSizes[y], y, index);
+        return y;
+    }
+
+    // Свободные места вплотную сбоку и сверху от клетки тела. Возвращает самую нижнюю строку.
+    // Пустота под клеткой - не место: клетка и так упадет в нее сама
+    private int addOpenings(int x, int y) {
+        if (y < rows - 1 && grid.get(x, y + 1) == SandboxEngine.EMPTY) {
+            flowing = true;
+        }
+        int bottom = -1;
+        if (y > 0) bottom = Math.max(bottom, addOpening(x, y - 1, false));
+        if (x > 0) bottom = Math.max(bottom, addOpening(x - 1, y, true));
+        if (x < cols - 1) bottom = Math.max(bottom, addOpening(x + 1, y, true));
+        return bottom;
+    }
+
+    private int addOpening(int x, int y, boolean side) {
+        if (grid.get(x, y) != SandboxEngine.EMPTY) return -1;
+        if (side && y < rows - 1 && grid.get(x, y + 1) == SandboxEngine.EMPTY) {
+            // Край тела переливается в пустоту
+            flowing = true;
+        }
+        openingSizes[y] = push(openingRows, openingSizes[y], y, y * cols + x);
+        return y;
+    }
+
+    private int push(int[][] buckets, int size, int row, int index) {
+        firstUsedRow = Math.min(firstUsedRow, row);
+        lastUsedRow = Math.max(lastUsedRow, row);
+        if (size == buckets[row].length) {
+            buckets[row] = Arrays.copyOf(buckets[row], size * 2);
+        }
+        buckets[row][size] = index;
+        return size + 1;
+    }
+}
@@ -1,1472 +1,315 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Random;
-import java.util.ArrayList;
-import java.util.List;
 import java.io.*;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-public class Main extends JPanel implements Runnable, MouseListener, MouseMotionListener, KeyListener {
+// Окно игры: рисует состояние SandboxEngine и передает ему ввод с мыши и клавиатуры
+public class Main extends JPanel implements Runnable, MouseListener, MouseMotionListener, MouseWheelListener, KeyListener {
     private static final int WIDTH = 800;
     private static final int HEIGHT = 600;
     private static final int CELL_SIZE = 4;
-    private static final int COLS = WIDTH / CELL_SIZE;
-    private static final int ROWS = HEIGHT / CELL_SIZE;
-    
-    private int[][] grid;
-    private int[][] gridBuffer;
-    private boolean running = true;
-    private boolean paused = false;
-    private boolean showSaveMenu = false;
-    private boolean showLoadMenu = false;
-    private Random random = new Random();
-    
-    // Элементы
-    public static final int EMPTY = 0;
-    public static final int SAND = 1;
-    public static final int WATER = 2;
-    public static final int LAVA = 3;
-    public static final int FIRE = 4;
-    public static final int EARTH = 5;
-    public static final int STONE = 6;
-    public static final int SMOKE = 7;
-    public static final int SEED = 8;
-    public static final int GRASS = 9;
-    public static final int WOOD = 10;
-    public static final int ICE = 11;
-    public static final int OIL = 12;
-    public static final int ERASER = 13;
-    public static final int IRON = 14;
-    public static final int NITROGEN = 15;
-    public static final int UNBREAKABLE = 16;
-    public static final int ACID = 17;
-    public static final int GLASS = 18;
-    public static final int DYNAMITE = 19;
-    public static final int GOLD = 20;
-    public static final int COPPER = 21;
-    public static final int SALT = 22;
-    public static final int CEMENT = 23;
-    public static final int RUBBER = 24;
-    public static final int GASOLINE = 25;
-    public static final int MERCURY = 26;
-    public static final int URANIUM = 27;
-    public static final int MOLTEN_IRON = 28;
-    public static final int MOLTEN_GOLD = 29;
-    public static final int MOLTEN_COPPER = 30;
-    public static final int LAMP = 31;
-    
-    // НОВЫЕ ЭЛЕМЕНТЫ
-    public static final int MEAT = 32;
-    public static final int ROTTEN_MEAT = 33;
-    public static final int PUMPKIN = 34;
-    public static final int WATERMELON = 35;
-    public static final int JUICE = 36;
-    public static final int PUMPKIN_SEED = 37;
-    public static final int WATERMELON_SEED = 38;
-    public static final int APPLE_SEED = 39;
-    
-    // НОВЫЕ ЭЛЕМЕНТЫ: Нефть, Газ, Сжиженный газ, Уголь
-    public static final int CRUDE_OIL = 40;      // Нефть
-    public static final int GAS = 41;            // Газ
-    public static final int LIQUEFIED_GAS = 42;  // Сжиженный газ
-    public static final int COAL = 43;           // Уголь
-    
-    // НОВЫЕ ЭЛЕМЕНТЫ: Песчаник и серый песок
-    public static final int SANDSTONE = 44;      // Песчаник
-    public static final int GRAY_SAND = 45;      // Серый песок
-    
-    // НОВЫЙ ЭЛЕМЕНТ: Торф
-    public static final int PEAT = 46;           // Торф
-    
-    private int currentElement = SAND;
-    private int brushSize = 3;
-    private boolean mousePressed = false;
-    
-    // Для FPS и скорости симуляции
-    private int fps = 0;
-    private int frameCount = 0;
-    private long lastFpsTime = 0;
-    private float simulationSpeed = 1.0f;
-    
-    // Для нагрева металлов
-    private int[][] heatGrid;
-    
-    // Для жизни огня
-    private int[][] fireLifeGrid;
-    
-    // Для формы кисти
-    private boolean roundBrush = true;
-    
-    // Для света ламп
-    private int[][] lightGrid;
-    
-    // Для взрывов
-    private List<Explosion> explosions = new ArrayList<>();
-    
-    // Для сохранения/загрузки
-    private String saveFileName = "";
-    private String[] saveFiles = new String[0];
-    private int selectedSaveIndex = -1;
-    
-    // Для гниения мяса
-    private int[][] decayGrid;
-    
-    class Explosion {
-        int x, y, radius, life;
-        
-        Explosion(int x, int y, int radius) {
-            this.x = x;
-            this.y = y;
-            this.radius = radius;
-            this.life = 20;
-        }
-        
-        void update() {
-            life--;
-        }
-        
-        boolean isAlive() {
-            return life > 0;
-        }
-    }
-    
-    public Main() {
-        setPreferredSize(new Dimension(WIDTH, HEIGHT));
-        setBackground(Color.BLACK);
-        addMouseListener(this);
-        addMouseMotionListener(this);
-        addKeyListener(this);
-        setFocusable(true);
-        
-        // Создаем папку saves если её нет
-        File savesDir = new File("saves");
-        if (!savesDir.exists()) {
-            savesDir.mkdir();
-        }
-        
-        grid = new int[COLS][ROWS];
-        gridBuffer = new int[COLS][ROWS];
-        heatGrid = new int[COLS][ROWS];
-        fireLifeGrid = new int[COLS][ROWS];
-        lightGrid = new int[COLS][ROWS];
-        decayGrid = new int[COLS][ROWS];
-        lastFpsTime = System.currentTimeMillis();
-        refreshSaveFiles();
-    }
-    
-    private void refreshSaveFiles() {
-        saveFiles = getSaveFiles();
-    }
-    
-    @Override
-    public void run() {
-        while (running) {
-            long startTime = System.currentTimeMillis();
-            
-            if (!paused) {
-                for (int i = 0; i < simulationSpeed; i++) {
-                    updatePhysics();
-                    updateLighting();
-                }
-                updateExplosions();
-            }
-            updateFPS();
-            repaint();
-            
-            long endTime = System.currentTimeMillis();
-            long sleepTime = Math.max(1, 16 - (endTime - startTime));
-            
-            try {
-                Thread.sleep((long)(sleepTime / simulationSpeed));
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-    }
-    
-    private void updateFPS() {
-        frameCount++;
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastFpsTime >= 1000) {
-            fps = frameCount;
-            frameCount = 0;
-            lastFpsTime = currentTime;
-        }
-    }
-    
-    private void updatePhysics() {
-        // Копируем текущее состояние в буфер
-        for (int x = 0; x < COLS; x++) {
-            for (int y = 0; y < ROWS; y++) {
-                gridBuffer[x][y] = grid[x][y];
-            }
-        }
-        
-        // Обновляем физику снизу вверх для стабильности
-        for (int y = ROWS - 2; y >= 0; y--) {
-            for (int x = 0; x < COLS; x++) {
-                int element = grid[x][y];
-                
-                if (element == EMPTY) continue;
-                
-                switch (element) {
-                    case SAND: updateSand(x, y); break;
-                    case WATER: updateWater(x, y); break;
-                    case LAVA: updateLava(x, y); break;
-                    case FIRE: updateFire(x, y); break;
-                    case EARTH: updateEarth(x, y); break;
-                    case STONE: updateStone(x, y); break;
-                    case SMOKE: updateSmoke(x, y); break;
-                    case SEED: updateSeed(x, y); break;
-                    case GRASS: updateGrass(x, y); break;
-                    case WOOD: updateWood(x, y); break;
-                    case ICE: updateIce(x, y); break;
-                    case OIL: updateOil(x, y); break;
-                    case IRON: updateIron(x, y); break;
-                    case NITROGEN: updateNitrogen(x, y); break;
-                    case UNBREAKABLE: updateUnbreakable(x, y); break;
-                    case ACID: updateAcid(x, y); break;
-                    case GLASS: updateGlass(x, y); break;
-                    case DYNAMITE: updateDynamite(x, y); break;
-                    case GOLD: updateGold(x, y); break;
-                    case COPPER: updateCopper(x, y); break;
-                    case SALT: updateSalt(x, y); break;
-                    case CEMENT: updateCement(x, y); break;
-                    case RUBBER: updateRubber(x, y); break;
-                    case GASOLINE: updateGasoline(x, y); break;
-                    case MERCURY: updateMercury(x, y); break;
-                    case URANIUM: updateUranium(x, y); break;
-                    case MOLTEN_IRON: updateMoltenIron(x, y); break;
-                    case MOLTEN_GOLD: updateMoltenGold(x, y); break;
-                    case MOLTEN_COPPER: updateMoltenCopper(x, y); break;
-                    case LAMP: updateLamp(x, y); break;
-                    case MEAT: updateMeat(x, y); break;
-                    case ROTTEN_MEAT: updateRottenMeat(x, y); break;
-                    case PUMPKIN: updatePumpkin(x, y); break;
-                    case WATERMELON: updateWatermelon(x, y); break;
-                    case JUICE: updateJuice(x, y); break;
-                    case PUMPKIN_SEED: updatePumpkinSeed(x, y); break;
-                    case WATERMELON_SEED: updateWatermelonSeed(x, y); break;
-                    case APPLE_SEED: updateAppleSeed(x, y); break;
-                    case CRUDE_OIL: updateCrudeOil(x, y); break;
-                    case GAS: updateGas(x, y); break;
-                    case LIQUEFIED_GAS: updateLiquefiedGas(x, y); break;
-                    case COAL: updateCoal(x, y); break;
-                    case SANDSTONE: updateSandstone(x, y); break;
-                    case GRAY_SAND: updateGraySand(x, y); break;
-                    case PEAT: updatePeat(x, y); break; // НОВОЕ: Торф
-                }
-            }
-        }
-        
-        // Копируем буфер обратно в основную сетку
-        for (int x = 0; x < COLS; x++) {
-            for (int y = 0; y < ROWS; y++) {
-                grid[x][y] = gridBuffer[x][y];
-            }
-        }
-    }
-    
-    private void updateLighting() {
-        // Сбрасываем свет
-        for (int x = 0; x < COLS; x++) {
-            for (int y = 0; y < ROWS; y++) {
-                lightGrid[x][y] = 0;
-            }
-        }
-        
-        // Распространяем свет от источников
-        for (int x = 0; x < COLS; x++) {
-            for (int y = 0; y < ROWS; y++) {
-                int element = grid[x][y];
-                int lightLevel = 0;
-                
-                if (element == LAMP) {
-                    lightLevel = 100; // Лампа дает сильный свет
-                } else if (element == FIRE) {
-                    lightLevel = 60; // Огонь дает средний свет
-                } else if (element == LAVA) {
-                    lightLevel = 40; // Лава дает слабый свет
-                } else if (element == URANIUM && heatGrid[x][y] > 50) {
-                    lightLevel = 30; // Нагретый уран светится
-                } else if (element == COAL && heatGrid[x][y] > 10) {
-                    lightLevel = 20; // Горящий уголь светится
-                }
-                
-                if (lightLevel > 0) {
-                    spreadLight(x, y, lightLevel);
-                }
-            }
-        }
-    }
-    
-    private void spreadLight(int x, int y, int lightLevel) {
-        if (lightLevel <= 0) return;
-        
-        // Устанавливаем свет в текущей клетке
-        if (lightGrid[x][y] < lightLevel) {
-            lightGrid[x][y] = lightLevel;
-        }
-        
-        // Распространяем свет в соседние клетки
-        int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
-        for (int[] dir : directions) {
-            int nx = x + dir[0];
-            int ny = y + dir[1];
-            
-            if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                // Свет проходит через прозрачные материалы и песок
-                if (grid[nx][ny] == EMPTY || grid[nx][ny] == GLASS || 
-                    grid[nx][ny] == WATER || grid[nx][ny] == SMOKE ||
-                    grid[nx][ny] == NITROGEN || grid[nx][ny] == GAS ||
-                    grid[nx][ny] == SAND) { // Песок теперь пропускает свет
-                    int newLightLevel = lightLevel - 15;
-                    if (newLightLevel > lightGrid[nx][ny]) {
-                        spreadLight(nx, ny, newLightLevel);
-                    }
-                }
-            }
-        }
-    }
-    
-    private void updateSand(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryMoveDiagonal(x, y)) return;
-        
-        // НОВАЯ МЕХАНИКА: Песок нагревается и превращается в песчаник
-        if (checkFireNearby(x, y) || checkLavaNearby(x, y)) {
-            heatGrid[x][y]++;
-            if (heatGrid[x][y] > 50) {
-                // При сильном нагреве песок превращается в песчаник
-                gridBuffer[x][y] = SANDSTONE;
-                heatGrid[x][y] = 0;
-            }
-        } else if (heatGrid[x][y] > 0) {
-            // Постепенно остывает
-            heatGrid[x][y]--;
-        }
-        
-        // НОВАЯ МЕХАНИКА: Песок ОЧЕНЬ медленно горит и превращается в серый песок
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.0001f) { // Очень медленное горение
-            gridBuffer[x][y] = GRAY_SAND;
-        }
-    }
-    
-    // НОВЫЙ МЕТОД: Торф
-    private void updatePeat(int x, int y) {
-        // Торф - горючий материал, похожий на землю
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.005f) {
-            gridBuffer[x][y] = FIRE;
-            fireLifeGrid[x][y] = 100;
-            createSmokeAround(x, y);
-        }
-        
-        // Торф может медленно тлеть
-        if (gridBuffer[x][y] == FIRE && random.nextFloat() < 0.01f) {
-            for (int dx = -1; dx <= 1; dx++) {
-                for (int dy = -1; dy <= 1; dy++) {
-                    int nx = x + dx;
-                    int ny = y + dy;
-                    if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                        gridBuffer[nx][ny] == PEAT && random.nextFloat() < 0.1f) {
-                        gridBuffer[nx][ny] = FIRE;
-                        fireLifeGrid[nx][ny] = 80;
-                    }
-                }
-            }
-        }
-    }
-    
-    private void updateSandstone(int x, int y) {
-        // Песчаник - твердый материал, неподвижен
-        // Не реагирует на нагрев и не горит
-        // Камень из застывшей лавы не плавится от лавы
-    }
-    
-    private void updateGraySand(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryMoveDiagonal(x, y)) return;
-        
-        // Серый песок не горит и не нагревается
-    }
-    
-    private void updateWater(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        checkLavaInteraction(x, y, WATER, STONE);
-        checkFireInteraction(x, y, WATER, SMOKE);
-    }
-    
-    private void updateLava(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (random.nextFloat() < 0.3f && tryFlow(x, y)) return;
-        
-        if (random.nextFloat() < 0.02f) {
-            createFireAround(x, y);
-        }
-        
-        // Охлаждение лавы в камень (увеличили шанс)
-        if (random.nextFloat() < 0.005f) {
-            gridBuffer[x][y] = STONE;
-        }
-        
-        // Нагрев металлов
-        heatMetal(x, y, IRON, MOLTEN_IRON, 0.8f);
-        heatMetal(x, y, GOLD, MOLTEN_GOLD, 0.7f);
-        heatMetal(x, y, COPPER, MOLTEN_COPPER, 0.9f);
-        
-        // НЕ нагреваем камень - камень из застывшей лавы не плавится
-        // heatMetal(x, y, STONE, LAVA, 1.5f); // Убрано
-        
-        // Застывание от жидкого азота (увеличили шанс)
-        if (checkLiquidNitrogenNearby(x, y) && random.nextFloat() < 0.8f) {
-            gridBuffer[x][y] = STONE;
-        }
-        
-        // Застывание от воды (новая механика) - увеличен шанс
-        if (checkWaterNearby(x, y) && random.nextFloat() < 0.5f) {
-            gridBuffer[x][y] = STONE;
-        }
-        
-        // Нерушимая стена не реагирует на лаву
-        if (checkUnbreakableNearby(x, y)) {
-            // Ничего не происходит
-        }
-    }
-    
-    private void updateFire(int x, int y) {
-        if (tryMove(x, y, 0, -1)) return;
-        
-        if (random.nextFloat() < 0.3f) {
-            int dx = random.nextInt(3) - 1;
-            if (tryMove(x, y, dx, -1)) return;
-        }
-        
-        checkCombustibleMaterials(x, y);
-        
-        if (random.nextFloat() < 0.1f) {
-            createSmokeAround(x, y);
-        }
-        
-        // Нагрев металлов огнем
-        heatMetal(x, y, IRON, MOLTEN_IRON, 0.3f);
-        heatMetal(x, y, GOLD, MOLTEN_GOLD, 0.2f);
-        heatMetal(x, y, COPPER, MOLTEN_COPPER, 0.4f);
-        
-        // Нагрев урана
-        if (checkUraniumNearby(x, y) && random.nextFloat() < 0.1f) {
-            for (int dx = -1; dx <= 1; dx++) {
-                for (int dy = -1; dy <= 1; dy++) {
-                    int nx = x + dx;
-                    int ny = y + dy;
-                    if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                        gridBuffer[nx][ny] == URANIUM) {
-                        heatGrid[nx][ny]++;
-                        if (heatGrid[nx][ny] > 50) {
-                            createNuclearExplosion(nx, ny);
-                            gridBuffer[nx][ny] = EMPTY;
-                        }
-                    }
-                }
-            }
-        }
-        
-        // Нерушимая стена не горит
-        if (checkUnbreakableNearby(x, y)) {
-            // Ничего не происходит
-        }
-        
-        // Время горения огня
-        if (fireLifeGrid[x][y] > 0) {
-            fireLifeGrid[x][y]--;
-        } else {
-            if (random.nextFloat() < 0.03f) {
-                gridBuffer[x][y] = EMPTY;
-            }
-        }
-    }
-    
-    private void updateEarth(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-    }
-    
-    private void updateStone(int x, int y) {
-        // Камень неподвижен и не плавится от лавы
-        // Убрана возможность плавления камня в лаву
-    }
-    
-    private void updateSmoke(int x, int y) {
-        if (y > 0 && gridBuffer[x][y - 1] == EMPTY) {
-            gridBuffer[x][y] = EMPTY;
-            gridBuffer[x][y - 1] = SMOKE;
-            return;
-        }
-        
-        if (random.nextFloat() < 0.4f) {
-            int dx = random.nextBoolean() ? 1 : -1;
-            int newX = x + dx;
-            if (newX >= 0 && newX < COLS && gridBuffer[newX][y] == EMPTY) {
-                gridBuffer[x][y] = EMPTY;
-                gridBuffer[newX][y] = SMOKE;
-                return;
-            }
-        }
-        
-        if (random.nextFloat() < 0.03f) {
-            gridBuffer[x][y] = EMPTY;
-        }
-    }
-    
-    private void updateSeed(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        
-        if (y < ROWS - 1) {
-            int below = gridBuffer[x][y + 1];
-            if (below == EARTH) {
-                boolean hasWater = checkWaterNearby(x, y);
-                float growthChance = hasWater ? 0.02f : 0.005f;
-                
-                if (random.nextFloat() < growthChance) {
-                    gridBuffer[x][y] = GRASS;
-                }
-            }
-        }
-    }
-    
-    private void updateGrass(int x, int y) {
-        if (y > 0) {
-            boolean hasEarthBelow = (y < ROWS - 1) && (gridBuffer[x][y + 1] == EARTH || gridBuffer[x][y + 1] == GRASS);
-            boolean hasWater = checkWaterNearby(x, y);
-            
-            if (hasEarthBelow && gridBuffer[x][y - 1] == EMPTY) {
-                float growthChance = hasWater ? 0.001f : 0.0002f;
-                if (random.nextFloat() < growthChance) {
-                    gridBuffer[x][y - 1] = GRASS;
-                }
-            }
-        }
-        
-        if (random.nextFloat() < 0.001f) {
-            int[][] directions = {{1, 0}, {-1, 0}, {0, 1}};
-            for (int[] dir : directions) {
-                int nx = x + dir[0];
-                int ny = y + dir[1];
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                    if (gridBuffer[nx][ny] == EARTH) {
-                        boolean hasWater = checkWaterNearby(nx, ny);
-                        if (hasWater || random.nextFloat() < 0.3f) {
-                            gridBuffer[nx][ny] = GRASS;
-                        }
-                    }
-                }
-            }
-        }
-        
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.02f) {
-            gridBuffer[x][y] = FIRE;
-            fireLifeGrid[x][y] = 30;
-            createSmokeAround(x, y);
-        }
-    }
-    
-    private void updateWood(int x, int y) {
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.01f) {
-            gridBuffer[x][y] = FIRE;
-            fireLifeGrid[x][y] = 80;
-            createSmokeAround(x, y);
-        }
-    }
-    
-    private void updateIce(int x, int y) {
-        if (y < ROWS - 1 && gridBuffer[x][y + 1] == WATER) {
-            if (random.nextFloat() < 0.1f) {
-                gridBuffer[x][y] = WATER;
-                gridBuffer[x][y + 1] = ICE;
-                return;
-            }
-        }
-        
-        if (checkFireNearby(x, y) || checkLavaNearby(x, y)) {
-            gridBuffer[x][y] = WATER;
-            return;
-        }
-        
-        if (y < ROWS - 1 && (gridBuffer[x][y + 1] == LAVA || gridBuffer[x][y + 1] == OIL)) {
-            if (random.nextFloat() < 0.05f) {
-                gridBuffer[x][y] = gridBuffer[x][y + 1];
-                gridBuffer[x][y + 1] = ICE;
-            }
-        }
-    }
-    
-    private void updateOil(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.3f) {
-            gridBuffer[x][y] = FIRE;
-            fireLifeGrid[x][y] = 40;
-            createSmokeAround(x, y);
-            for (int i = -1; i <= 1; i++) {
-                for (int j = -1; j <= 1; j++) {
-                    int nx = x + i;
-                    int ny = y + j;
-                    if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                        gridBuffer[nx][ny] == OIL) {
-                        gridBuffer[nx][ny] = FIRE;
-                        fireLifeGrid[nx][ny] = 40;
-                    }
-                }
-            }
-        }
-    }
-    
-    private void updateIron(int x, int y) {
-        // Охлаждение расплавленного железа
-        if (checkLiquidNitrogenNearby(x, y) && random.nextFloat() < 0.05f) {
-            if (heatGrid[x][y] > 0) {
-                heatGrid[x][y]--;
-            }
-        }
-    }
-    
-    private void updateNitrogen(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        // Застывание лавы (увеличили шанс)
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                    if (gridBuffer[nx][ny] == LAVA && random.nextFloat() < 0.8f) {
-                        gridBuffer[nx][ny] = STONE;
-                    }
-                    // Застывание расплавленных металлов
-                    if ((gridBuffer[nx][ny] == MOLTEN_IRON || 
-                         gridBuffer[nx][ny] == MOLTEN_GOLD || 
-                         gridBuffer[nx][ny] == MOLTEN_COPPER) && random.nextFloat() < 0.1f) {
-                        if (gridBuffer[nx][ny] == MOLTEN_IRON) gridBuffer[nx][ny] = IRON;
-                        if (gridBuffer[nx][ny] == MOLTEN_GOLD) gridBuffer[nx][ny] = GOLD;
-                        if (gridBuffer[nx][ny] == MOLTEN_COPPER) gridBuffer[nx][ny] = COPPER;
-                        heatGrid[nx][ny] = 0;
-                    }
-                    // Заморозка воды
-                    if (gridBuffer[nx][ny] == WATER && random.nextFloat() < 0.1f) {
-                        gridBuffer[nx][ny] = ICE;
-                    }
-                    // Заморозка кислоты
-                    if (gridBuffer[nx][ny] == ACID && random.nextFloat() < 0.05f) {
-                        gridBuffer[nx][ny] = ICE;
-                    }
-                }
-            }
-        }
-        
-        // Испарение азота
-        if (random.nextFloat() < 0.02f) {
-            gridBuffer[x][y] = EMPTY;
-        }
-    }
-    
-    private void updateUnbreakable(int x, int y) {
-        // Абсолютно нерушимая стена - не реагирует ни на что
-    }
-    
-    private void updateAcid(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        // Растворение большинства материалов (кроме нерушимой стены и резины)
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                    int target = gridBuffer[nx][ny];
-                    if (target != EMPTY && target != UNBREAKABLE && target != RUBBER && 
-                        target != ACID && random.nextFloat() < 0.3f) {
-                        gridBuffer[nx][ny] = EMPTY;
-                    }
-                }
-            }
-        }
-        
-        // Нерушимая стена не реагирует на кислоту
-        if (checkUnbreakableNearby(x, y)) {
-            // Ничего не происходит
-        }
-    }
-    
-    private void updateGlass(int x, int y) {
-        // Может плавиться от лавы
-        if (checkLavaNearby(x, y) && random.nextFloat() < 0.05f) {
-            gridBuffer[x][y] = LAVA;
-        }
-    }
-    
-    private void updateDynamite(int x, int y) {
-        if (checkFireNearby(x, y) || checkLavaNearby(x, y)) {
-            createExplosion(x, y, 8);
-            gridBuffer[x][y] = EMPTY;
-        }
-    }
-    
-    private void updateGold(int x, int y) {
-        // Охлаждение
-        if (checkLiquidNitrogenNearby(x, y) && random.nextFloat() < 0.05f) {
-            if (heatGrid[x][y] > 0) {
-                heatGrid[x][y]--;
-            }
-        }
-    }
-    
-    private void updateCopper(int x, int y) {
-        // Охлаждение
-        if (checkLiquidNitrogenNearby(x, y) && random.nextFloat() < 0.05f) {
-            if (heatGrid[x][y] > 0) {
-                heatGrid[x][y]--;
-            }
-        }
-    }
-    
-    private void updateSalt(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryMoveDiagonal(x, y)) return;
-        
-        // Растворение в воде
-        if (checkWaterNearby(x, y) && random.nextFloat() < 0.1f) {
-            gridBuffer[x][y] = EMPTY;
-        }
-    }
-    
-    private void updateCement(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        
-        // Затвердевание при контакте с водой
-        if (checkWaterNearby(x, y) && random.nextFloat() < 0.01f) {
-            gridBuffer[x][y] = STONE;
-        }
-    }
-    
-    private void updateRubber(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-    }
-    
-    private void updateGasoline(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.5f) {
-            gridBuffer[x][y] = FIRE;
-            fireLifeGrid[x][y] = 60;
-            createSmokeAround(x, y);
-            for (int i = -2; i <= 2; i++) {
-                for (int j = -2; j <= 2; j++) {
-                    int nx = x + i;
-                    int ny = y + j;
-                    if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                        gridBuffer[nx][ny] == GASOLINE) {
-                        gridBuffer[nx][ny] = FIRE;
-                        fireLifeGrid[nx][ny] = 60;
-                    }
-                }
-            }
-        }
-    }
-    
-    private void updateMercury(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        if (y < ROWS - 1 && gridBuffer[x][y + 1] == WATER) {
-            if (random.nextFloat() < 0.1f) {
-                gridBuffer[x][y] = WATER;
-                gridBuffer[x][y + 1] = MERCURY;
-            }
-        }
-    }
-    
-    private void updateUranium(int x, int y) {
-        // Постепенно нагревается сам по себе
-        if (random.nextFloat() < 0.001f) {
-            heatGrid[x][y]++;
-        }
-        
-        // Взрыв при перегреве
-        if (heatGrid[x][y] > 100) {
-            createNuclearExplosion(x, y);
-            gridBuffer[x][y] = EMPTY;
-        }
-        
-        // Свечение при нагреве
-        if (heatGrid[x][y] > 50 && random.nextFloat() < 0.1f) {
-            createFireAround(x, y);
-        }
-    }
-    
-    private void updateMoltenIron(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        // Охлаждение и застывание
-        if (checkLiquidNitrogenNearby(x, y) && random.nextFloat() < 0.1f) {
-            gridBuffer[x][y] = IRON;
-            heatGrid[x][y] = 0;
-        } else if (random.nextFloat() < 0.001f) {
-            gridBuffer[x][y] = IRON;
-            heatGrid[x][y] = 0;
-        }
-    }
-    
-    private void updateMoltenGold(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        // Охлаждение и застывание
-        if (checkLiquidNitrogenNearby(x, y) && random.nextFloat() < 0.1f) {
-            gridBuffer[x][y] = GOLD;
-            heatGrid[x][y] = 0;
-        } else if (random.nextFloat() < 0.001f) {
-            gridBuffer[x][y] = GOLD;
-            heatGrid[x][y] = 0;
-        }
-    }
-    
-    private void updateMoltenCopper(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        // Охлаждение и застывание
-        if (checkLiquidNitrogenNearby(x, y) && random.nextFloat() < 0.1f) {
-            gridBuffer[x][y] = COPPER;
-            heatGrid[x][y] = 0;
-        } else if (random.nextFloat() < 0.001f) {
-            gridBuffer[x][y] = COPPER;
-            heatGrid[x][y] = 0;
-        }
-    }
-    
-    private void updateLamp(int x, int y) {
-        // Лампа - статичный светящийся элемент
-        // Ничего не делает, просто светится (свет обрабатывается в updateLighting)
-    }
-    
-    private void updateMeat(int x, int y) {
-        if (decayGrid[x][y] < 500) {
-            decayGrid[x][y]++;
-        } else {
-            if (random.nextFloat() < 0.005f) {
-                gridBuffer[x][y] = ROTTEN_MEAT;
-                if (random.nextFloat() < 0.3f) {
-                    createSmokeAround(x, y);
-                }
-            }
-        }
-        
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.01f) {
-            gridBuffer[x][y] = FIRE;
-            fireLifeGrid[x][y] = 50;
-        }
-    }
-    
-    private void updateRottenMeat(int x, int y) {
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.05f) {
-            gridBuffer[x][y] = FIRE;
-            fireLifeGrid[x][y] = 60;
-            createSmokeAround(x, y);
-        }
-        
-        if (random.nextFloat() < 0.001f) {
-            gridBuffer[x][y] = EMPTY;
-            if (random.nextFloat() < 0.5f) {
-                createSmokeAround(x, y);
-            }
-        }
-    }
-    
-    private void updatePumpkin(int x, int y) {
-        if (checkExplosionNearby(x, y) || checkFireNearby(x, y) || checkLavaNearby(x, y) || 
-            checkAcidNearby(x, y)) {
-            if (random.nextFloat() < 0.1f) {
-                gridBuffer[x][y] = JUICE;
-                
-                for (int dx = -1; dx <= 1; dx++) {
-                    for (int dy = -1; dy <= 1; dy++) {
-                        int nx = x + dx;
-                        int ny = y + dy;
-                        if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                            gridBuffer[nx][ny] == EMPTY && random.nextFloat() < 0.3f) {
-                            gridBuffer[nx][ny] = PUMPKIN_SEED;
-                        }
-                    }
-                }
-            }
-        }
-    }
-    
-    private void updateWatermelon(int x, int y) {
-        if (checkExplosionNearby(x, y) || checkFireNearby(x, y) || checkLavaNearby(x, y) || 
-            checkAcidNearby(x, y)) {
-            if (random.nextFloat() < 0.1f) {
-                gridBuffer[x][y] = JUICE;
-                
-                for (int dx = -1; dx <= 1; dx++) {
-                    for (int dy = -1; dy <= 1; dy++) {
-                        int nx = x + dx;
-                        int ny = y + dy;
-                        if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                            gridBuffer[nx][ny] == EMPTY && random.nextFloat() < 0.3f) {
-                            gridBuffer[nx][ny] = WATERMELON_SEED;
-                        }
-                    }
-                }
-            }
-        }
-    }
-    
-    private void updateJuice(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        if (random.nextFloat() < 0.001f) {
-            gridBuffer[x][y] = EMPTY;
-        }
-    }
-    
-    private void updatePumpkinSeed(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        
-        if (y < ROWS - 1) {
-            int below = gridBuffer[x][y + 1];
-            if (below == EARTH || below == GRASS) {
-                boolean hasWater = checkWaterNearby(x, y);
-                float growthChance = hasWater ? 0.01f : 0.002f;
-                
-                if (random.nextFloat() < growthChance) {
-                    if (y > 0 && gridBuffer[x][y - 1] == EMPTY) {
-                        gridBuffer[x][y - 1] = PUMPKIN;
-                        gridBuffer[x][y] = EMPTY;
-                    }
-                }
-            }
-        }
-    }
-    
-    private void updateWatermelonSeed(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        
-        if (y < ROWS - 1) {
-            int below = gridBuffer[x][y + 1];
-            if (below == EARTH || below == GRASS) {
-                boolean hasWater = checkWaterNearby(x, y);
-                float growthChance = hasWater ? 0.01f : 0.002f;
-                
-                if (random.nextFloat() < growthChance) {
-                    if (y > 0 && gridBuffer[x][y - 1] == EMPTY) {
-                        gridBuffer[x][y - 1] = WATERMELON;
-                        gridBuffer[x][y] = EMPTY;
-                    }
-                }
-            }
-        }
-    }
-    
-    private void updateAppleSeed(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        
-        if (y < ROWS - 1) {
-            int below = gridBuffer[x][y + 1];
-            if (below == EARTH || below == GRASS) {
-                boolean hasWater = checkWaterNearby(x, y);
-                float growthChance = hasWater ? 0.008f : 0.001f;
-                
-                if (random.nextFloat() < growthChance) {
-                    gridBuffer[x][y] = WOOD;
-                }
-            }
-        }
-    }
-    
-    private void updateCrudeOil(int x, int y) {
-        if (random.nextFloat() < 0.7f && tryMove(x, y, 0, 1)) return;
-        if (random.nextFloat() < 0.5f && tryFlow(x, y)) return;
-        
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.4f) {
-            gridBuffer[x][y] = FIRE;
-            fireLifeGrid[x][y] = 80;
-            createSmokeAround(x, y);
-            
-            for (int i = -1; i <= 1; i++) {
-                for (int j = -1; j <= 1; j++) {
-                    int nx = x + i;
-                    int ny = y + j;
-                    if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                        gridBuffer[nx][ny] == CRUDE_OIL && random.nextFloat() < 0.6f) {
-                        gridBuffer[nx][ny] = FIRE;
-                        fireLifeGrid[nx][ny] = 80;
-                    }
-                }
-            }
-        }
-        
-        if ((checkFireNearby(x, y) || checkLavaNearby(x, y)) && random.nextFloat() < 0.01f) {
-            gridBuffer[x][y] = GASOLINE;
-        }
-    }
+    // Масштаб по умолчанию: 2^2 = CELL_SIZE пикселей на клетку
+    private static final int DEFAULT_ZOOM = 2;
+    
+    // Размер мира в клетках (по умолчанию - весь экран). Мир может быть больше экрана:
+    // -Dsandbox.cols=... и -Dsandbox.rows=...; тогда его двигают и масштабируют камерой
+    private final int cols;
+    private final int rows;
+    // Камера. Меняет ее EDT, поток симуляции берет ссылку раз за кадр
+    private volatile Viewport viewport = new Viewport(0, 0, DEFAULT_ZOOM);
+    // Сдвиг камеры правой или средней кнопкой мыши
+    private boolean panning = false;
+    private int panX;
+    private int panY;
+    
+    // Вся симуляция живет в движке, окно только читает его сетку и свет
+    private final SandboxEngine engine;
+    private volatile boolean running = true;
+    private volatile boolean paused = false;
+    private boolean showSaveMenu = false;
+    private boolean showLoadMenu = false;
+    // Растр мира: клетки рисуются в картинку и выводятся одним drawImage.
+    // Картинку обновляет поток симуляции, окно только выводит ее
+    private final WorldRenderer renderer;
+    // Мир меняет только поток симуляции: кисть, очистка, загрузка и прочие команды из окна
+    // складываются сюда и выполняются между тиками, поэтому окно никогда не пишет в сетку
+    // посреди тика и ни один поток не ждет другой
+    private final Queue<Runnable> worldCommands = new ConcurrentLinkedQueue<>();
+    
+    // Активная отрисовка (см. CanvasPresenter): null - обычный режим через repaint()
+    private CanvasPresenter presenter;
+    private final Consumer<Graphics> activePainter = this::drawActiveFrame;
+    // Время самого раннего мазка кистью, еще не показанного на экране (только поток симуляции)
+    private long unpresentedInputTime = 0;
+    // Высота полосы с подсказками и счетчиками сверху экрана
+    private static final int HUD_HEIGHT = 170;
+    
+    private int currentElement = SandboxEngine.SAND;
+    private int brushSize = 3;
+    private boolean mousePressed = false;
     
-    private void updateGas(int x, int y) {
-        // Газ теперь синий и поднимается вверх
-        if (tryMove(x, y, 0, -1)) return;
-        
-        if (random.nextFloat() < 0.6f) {
-            int dx = random.nextInt(3) - 1;
-            if (tryMove(x, y, dx, -1)) return;
-        }
-        
-        // Газ легко воспламеняется
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.8f) {
-            createExplosion(x, y, 5);
-            gridBuffer[x][y] = EMPTY;
-        }
-        
-        // Газ рассеивается со временем
-        if (random.nextFloat() < 0.05f) {
-            gridBuffer[x][y] = EMPTY;
-        }
-        
-        // Газ может превращаться обратно в сжиженный газ при охлаждении
-        if (checkLiquidNitrogenNearby(x, y) && random.nextFloat() < 0.1f) {
-            gridBuffer[x][y] = LIQUEFIED_GAS;
-        }
-    }
+    // Фиксированный шаг симуляции: тики идут с частотой tickRate * simulationSpeed
+    // независимо от частоты кадров. Обе частоты можно задать свойствами
+    // -Dsandbox.tickRate=... и -Dsandbox.frameRate=...
+    private static final int DEFAULT_TICK_RATE = 60;
+    private static final int DEFAULT_FRAME_RATE = 60;
+    // Больше тиков за кадр не догоняем: если физика не успевает, игра замедляется, а не зависает
+    private static final int MAX_CATCH_UP_TICKS = 32;
+    private final int tickRate = Math.max(1, Integer.getInteger("sandbox.tickRate", DEFAULT_TICK_RATE));
+    private final FramePacer framePacer = new FramePacer(Integer.getInteger("sandbox.frameRate", DEFAULT_FRAME_RATE));
+    private volatile float simulationSpeed = 1.0f;
+    // Тиков в секунду на самом деле (за последнюю секунду) и сколько тиков пришлось отбросить
+    private volatile int ticksPerSecond = 0;
+    private volatile int droppedTicks = 0;
     
-    private void updateLiquefiedGas(int x, int y) {
-        if (tryMove(x, y, 0, 1)) return;
-        if (tryFlow(x, y)) return;
-        
-        // Сжиженный газ испаряется в газ
-        if (random.nextFloat() < 0.02f) {
-            gridBuffer[x][y] = GAS;
-        }
-        
-        // Сжиженный газ очень взрывоопасен
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.9f) {
-            createExplosion(x, y, 8);
-            gridBuffer[x][y] = EMPTY;
-        }
-    }
+    // Для формы кисти
+    private boolean roundBrush = true;
     
-    private void updateCoal(int x, int y) {
-        // Уголь - твердый материал, может гореть долко и выделять тепло
-        if (checkFireNearby(x, y) && random.nextFloat() < 0.02f) {
-            // Уголь загорается
-            heatGrid[x][y] = 100; // Уголь сильно нагревается при горении
-            if (random.nextFloat() < 0.01f) {
-                // Создаем огонь вокруг угля
-                for (int dx = -1; dx <= 1; dx++) {
-                    for (int dy = -1; dy <= 1; dy++) {
-                        int nx = x + dx;
-                        int ny = y + dy;
-                        if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                            gridBuffer[nx][ny] == EMPTY && random.nextFloat() < 0.3f) {
-                            gridBuffer[nx][ny] = FIRE;
-                            fireLifeGrid[nx][ny] = 40;
-                        }
-                    }
-                }
-            }
-        }
-        
-        // Горящий уголь постепенно остывает и сгорает
-        if (heatGrid[x][y] > 0) {
-            heatGrid[x][y]--;
-            if (heatGrid[x][y] == 0) {
-                // Уголь полностью сгорает
-                gridBuffer[x][y] = EMPTY;
-                if (random.nextFloat() < 0.5f) {
-                    createSmokeAround(x, y);
-                }
-            }
-        }
-        
-        // Уголь может нагревать соседние металлы
-        if (heatGrid[x][y] > 50) {
-            heatMetal(x, y, IRON, MOLTEN_IRON, 0.1f);
-            heatMetal(x, y, GOLD, MOLTEN_GOLD, 0.08f);
-            heatMetal(x, y, COPPER, MOLTEN_COPPER, 0.12f);
-        }
-    }
+    // Запись кадров на диск (Ctrl+R или -Dsandbox.capture=папка): null - не пишем.
+    // Включает и выключает ее поток симуляции, окно только показывает счетчики.
+    // Формат - -Dsandbox.captureFormat=png или raw (см. FrameRecorder)
+    private volatile FrameRecorder recorder;
+    // Выключенные записи, чьи кодировщики еще дописывают кадры: при выходе ждем все
+    private final Queue<FrameRecorder> closingRecorders = new ConcurrentLinkedQueue<>();
+    private final FrameRecorder.Format captureFormat =
+            FrameRecorder.Format.valueOf(System.getProperty("sandbox.captureFormat", "png").toUpperCase());
+    
+    // Оверлей производительности (F3): время фаз по кадрам, процентили тиков, население, GC
+    private final PerfStats perfStats = new PerfStats();
+    private volatile boolean perfOverlay = false;
+    private static final int PERF_X = 10;
+    private static final int PERF_Y = HEIGHT - 215;
+    private static final int PERF_WIDTH = 540;
+    private static final int PERF_HEIGHT = 205;
+    // Высота графика соответствует двум кадрам по 60 FPS
+    private static final int PERF_GRAPH_HEIGHT = 100;
+    private static final int PERF_GRAPH_MICROS = 33_333;
+    private static final Color[] PHASE_COLORS = {
+        Color.GRAY, new Color(80, 160, 255), Color.ORANGE, Color.YELLOW,
+        new Color(80, 220, 120), Color.MAGENTA, Color.WHITE, new Color(255, 240, 160)
+    };
+    private static final float[] TICK_PERCENTILES = {50, 95, 99, 100};
+    private final float[] tickPercentileMs = new float[TICK_PERCENTILES.length];
+    private final int[] tickScratch = new int[PerfStats.TICK_WINDOW];
     
-    // Вспомогательные методы
-    private boolean tryMove(int x, int y, int dx, int dy) {
-        int newX = x + dx;
-        int newY = y + dy;
-        
-        if (newX >= 0 && newX < COLS && newY >= 0 && newY < ROWS && 
-            gridBuffer[newX][newY] == EMPTY) {
-            gridBuffer[x][y] = EMPTY;
-            gridBuffer[newX][newY] = grid[x][y];
-            heatGrid[newX][newY] = heatGrid[x][y];
-            fireLifeGrid[newX][newY] = fireLifeGrid[x][y];
-            decayGrid[newX][newY] = decayGrid[x][y];
-            heatGrid[x][y] = 0;
-            fireLifeGrid[x][y] = 0;
-            decayGrid[x][y] = 0;
-            return true;
-        }
-        return false;
-    }
+    // Для сохранения/загрузки
+    private String saveFileName = "";
+    private String[] saveFiles = new String[0];
+    private int selectedSaveIndex = -1;
     
-    private boolean tryMoveDiagonal(int x, int y) {
-        boolean left = x > 0 && gridBuffer[x - 1][y + 1] == EMPTY;
-        boolean right = x < COLS - 1 && gridBuffer[x + 1][y + 1] == EMPTY;
-        
-        if (left && right) {
-            if (random.nextBoolean()) {
-                return tryMove(x, y, -1, 1);
-            } else {
-                return tryMove(x, y, 1, 1);
-            }
-        } else if (left) {
-            return tryMove(x, y, -1, 1);
-        } else if (right) {
-            return tryMove(x, y, 1, 1);
-        }
-        return false;
+    public Main() {
+        this(Integer.getInteger("sandbox.cols", WIDTH / CELL_SIZE), Integer.getInteger("sandbox.rows", HEIGHT / CELL_SIZE));
     }
     
-    private boolean tryFlow(int x, int y) {
-        int[] directions = {-1, 1};
-        if (random.nextBoolean()) {
-            int temp = directions[0];
-            directions[0] = directions[1];
-            directions[1] = temp;
-        }
+    Main(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        this.engine = new SandboxEngine(cols, rows);
+        this.renderer = new WorldRenderer(cols, rows, WIDTH, HEIGHT);
+        engine.setPerfStats(perfStats);
+        setPreferredSize(new Dimension(WIDTH, HEIGHT));
+        setBackground(Color.BLACK);
+        addMouseListener(this);
+        addMouseMotionListener(this);
+        addMouseWheelListener(this);
+        addKeyListener(this);
+        setFocusable(true);
         
-        for (int dx : directions) {
-            if (tryMove(x, y, dx, 0)) return true;
+        // Создаем папку saves если её нет
+        File savesDir = new File("saves");
+        if (!savesDir.exists()) {
+            savesDir.mkdir();
         }
         
-        for (int dx : directions) {
-            if (y > 0 && tryMove(x, y, dx, -1)) return true;
-        }
+        refreshSaveFiles();
         
-        return false;
-    }
-    
-    private void heatMetal(int x, int y, int solidMetal, int moltenMetal, float heatRate) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                    if (gridBuffer[nx][ny] == solidMetal && random.nextFloat() < heatRate) {
-                        heatGrid[nx][ny]++;
-                        if (heatGrid[nx][ny] > 30) {
-                            gridBuffer[nx][ny] = moltenMetal;
-                        }
-                    }
-                }
-            }
-        }
-    }
-    
-    private boolean checkWaterNearby(int x, int y) {
-        for (int dx = -2; dx <= 2; dx++) {
-            for (int dy = -2; dy <= 2; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    gridBuffer[nx][ny] == WATER) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    
-    private boolean checkFireNearby(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    (gridBuffer[nx][ny] == FIRE || gridBuffer[nx][ny] == LAVA)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    
-    private boolean checkLavaNearby(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    gridBuffer[nx][ny] == LAVA) {
-                    return true;
-                }
-            }
+        String captureDir = System.getProperty("sandbox.capture");
+        if (captureDir != null) {
+            worldCommands.add(() -> startRecording(new File(captureDir)));
         }
-        return false;
     }
     
-    private boolean checkLiquidNitrogenNearby(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    gridBuffer[nx][ny] == NITROGEN) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    // Вывод через Canvas вместо самой панели: ввод тоже идет от него
+    void attachPresenter(CanvasPresenter canvas) {
+        presenter = canvas;
+        canvas.addMouseListener(this);
+        canvas.addMouseMotionListener(this);
+        canvas.addMouseWheelListener(this);
+        canvas.addKeyListener(this);
     }
     
-    private boolean checkUraniumNearby(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    gridBuffer[nx][ny] == URANIUM) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    private void refreshSaveFiles() {
+        saveFiles = getSaveFiles();
     }
     
-    private boolean checkUnbreakableNearby(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    gridBuffer[nx][ny] == UNBREAKABLE) {
-                    return true;
-                }
+    @Override
+    public void run() {
+        double tickNanos = 1_000_000_000.0 / tickRate;
+        // Накопленное, но еще не отсимулированное время (в наносекундах игрового времени)
+        double accumulator = 0;
+        int ticksThisSecond = 0;
+        int droppedThisSecond = 0;
+        long secondStart = System.nanoTime();
+        long previous = secondStart;
+        framePacer.start();
+        
+        while (running) {
+            long now = System.nanoTime();
+            long elapsed = now - previous;
+            previous = now;
+            
+            Runnable command;
+            while ((command = worldCommands.poll()) != null) {
+                command.run();
             }
-        }
-        return false;
-    }
-    
-    private boolean checkExplosionNearby(int x, int y) {
-        for (Explosion explosion : explosions) {
-            if (explosion.isAlive()) {
-                int dx = x - explosion.x;
-                int dy = y - explosion.y;
-                if (dx * dx + dy * dy <= explosion.radius * explosion.radius) {
-                    return true;
+            
+            if (!paused) {
+                // Скорость масштабирует время, а не число тиков за кадр,
+                // поэтому 0.1x - это ровно каждый десятый тик, а 2.5x - ровно 2.5 тика на шаг
+                accumulator += elapsed * (double) simulationSpeed;
+                int ticks = 0;
+                while (accumulator >= tickNanos && ticks < MAX_CATCH_UP_TICKS) {
+                    engine.step();
+                    accumulator -= tickNanos;
+                    ticks++;
+                }
+                if (accumulator >= tickNanos) {
+                    droppedThisSecond += (int) (accumulator / tickNanos);
+                    accumulator %= tickNanos;
+                }
+                ticksThisSecond += ticks;
+            }
+            // Свет нужен только для картинки: считаем его раз за кадр, а не на каждый тик,
+            // и в фоновом потоке. Вызов и на паузе - чтобы осветить то, что нарисовали кистью
+            engine.updateLightingAsync();
+            
+            // Дорисовываем в кадр только изменившиеся видимые плитки
+            long renderStart = System.nanoTime();
+            int dirtyRects = renderer.update(engine, viewport);
+            perfStats.add(PerfStats.RENDER, System.nanoTime() - renderStart);
+            
+            if (presenter != null) {
+                // Активный режим: кадр показываем сами, сразу после симуляции
+                long presentStart = System.nanoTime();
+                if (presenter.present(activePainter, unpresentedInputTime)) {
+                    unpresentedInputTime = 0;
                 }
-            }
-        }
-        return false;
-    }
-    
-    private boolean checkAcidNearby(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    gridBuffer[nx][ny] == ACID) {
-                    return true;
+                perfStats.add(PerfStats.PRESENT, System.nanoTime() - presentStart);
+            } else {
+                // Просим Swing обновить только изменившиеся области
+                for (int n = 0; n < dirtyRects; n++) {
+                    repaint(renderer.dirtyX(n), renderer.dirtyY(n), renderer.dirtyWidth(n), renderer.dirtyHeight(n));
                 }
-            }
-        }
-        return false;
-    }
-    
-    private void checkLavaInteraction(int x, int y, int element, int result) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                    if ((gridBuffer[x][y] == LAVA && gridBuffer[nx][ny] == element) ||
-                        (gridBuffer[x][y] == element && gridBuffer[nx][ny] == LAVA)) {
-                        gridBuffer[x][y] = result;
-                        gridBuffer[nx][ny] = result;
-                    }
+                unpresentedInputTime = 0;
+                // Оверлей меняется каждый кадр
+                if (perfOverlay) {
+                    repaint(PERF_X, PERF_Y, PERF_WIDTH, PERF_HEIGHT);
                 }
             }
-        }
-    }
-    
-    private void checkFireInteraction(int x, int y, int element, int result) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                    if ((gridBuffer[x][y] == FIRE && gridBuffer[nx][ny] == element) ||
-                        (gridBuffer[x][y] == element && gridBuffer[nx][ny] == FIRE)) {
-                        gridBuffer[x][y] = result;
-                        gridBuffer[nx][ny] = result;
-                    }
-                }
+            if (perfOverlay) {
+                perfStats.sampleWorld(engine, now);
             }
-        }
-    }
-    
-    private void checkCombustibleMaterials(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                    int neighbor = gridBuffer[nx][ny];
-                    if ((neighbor == SAND || neighbor == EARTH || neighbor == GRASS || 
-                         neighbor == WOOD || neighbor == SEED || neighbor == ROTTEN_MEAT ||
-                         neighbor == PEAT) && random.nextFloat() < 0.1f) { // Добавили торф
-                        gridBuffer[nx][ny] = FIRE;
-                        fireLifeGrid[nx][ny] = 50;
-                    }
-                }
+            perfStats.endFrame();
+            
+            if (now - secondStart >= 1_000_000_000L) {
+                ticksPerSecond = ticksThisSecond;
+                droppedTicks = droppedThisSecond;
+                ticksThisSecond = 0;
+                droppedThisSecond = 0;
+                secondStart = now;
+                // Счетчики меняются раз в секунду
+                repaintHud();
             }
-        }
-    }
-    
-    private void createFireAround(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    gridBuffer[nx][ny] == EMPTY && random.nextFloat() < 0.3f) {
-                    gridBuffer[nx][ny] = FIRE;
-                    fireLifeGrid[nx][ny] = 40;
-                }
+            
+            try {
+                framePacer.waitForNextFrame();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
         }
     }
     
-    private void createSmokeAround(int x, int y) {
-        for (int dx = -1; dx <= 1; dx++) {
-            for (int dy = -1; dy <= 1; dy++) {
-                int nx = x + dx;
-                int ny = y + dy;
-                if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS && 
-                    gridBuffer[nx][ny] == EMPTY && random.nextFloat() < 0.4f) {
-                    gridBuffer[nx][ny] = SMOKE;
-                }
+    // Методы для сохранения/загрузки
+    // Сам файл пишется и читается в потоке симуляции между тиками, ответ окну - через invokeLater
+    private void saveGame(String fileName) {
+        worldCommands.add(() -> {
+            try {
+                engine.saveWorld(new File("saves/" + fileName + ".sand"));
+                System.out.println("Игра сохранена: " + fileName);
+                SwingUtilities.invokeLater(this::refreshSaveFiles);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        }
+        });
     }
     
-    private void createExplosion(int x, int y, int radius) {
-        explosions.add(new Explosion(x, y, radius));
-        
-        for (int dx = -radius; dx <= radius; dx++) {
-            for (int dy = -radius; dy <= radius; dy++) {
-                if (dx * dx + dy * dy <= radius * radius) {
-                    int nx = x + dx;
-                    int ny = y + dy;
-                    if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                        // Нерушимая стена не разрушается (добавили проверку для динамита)
-                        if (gridBuffer[nx][ny] != UNBREAKABLE && 
-                            gridBuffer[nx][ny] != STONE && gridBuffer[nx][ny] != IRON && 
-                            gridBuffer[nx][ny] != GOLD && gridBuffer[nx][ny] != COPPER &&
-                            gridBuffer[nx][ny] != SANDSTONE) { // Песчаник тоже не разрушается
-                            gridBuffer[nx][ny] = EMPTY;
-                        }
-                        if (dx * dx + dy * dy >= (radius - 1) * (radius - 1)) {
-                            if (random.nextFloat() < 0.3f) {
-                                gridBuffer[nx][ny] = FIRE;
-                                fireLifeGrid[nx][ny] = 60;
-                            }
-                            if (random.nextFloat() < 0.5f) {
-                                createSmokeAround(nx, ny);
-                            }
-                        }
-                    }
-                }
+    private void loadGame(String fileName) {
+        worldCommands.add(() -> {
+            try {
+                engine.loadWorld(new File("saves/" + fileName + ".sand"));
+                System.out.println("Игра загружена: " + fileName);
+            } catch (IOException e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        "Ошибка загрузки файла: " + fileName, "Ошибка", JOptionPane.ERROR_MESSAGE));
             }
-        }
+        });
     }
     
-    private void createNuclearExplosion(int x, int y) {
-        explosions.add(new Explosion(x, y, 15));
-        
-        for (int dx = -10; dx <= 10; dx++) {
-            for (int dy = -10; dy <= 10; dy++) {
-                if (dx * dx + dy * dy <= 100) {
-                    int nx = x + dx;
-                    int ny = y + dy;
-                    if (nx >= 0 && nx < COLS && ny >= 0 && ny < ROWS) {
-                        // Нерушимая стена не разрушается даже ядерным взрывом
-                        if (gridBuffer[nx][ny] != UNBREAKABLE) {
-                            gridBuffer[nx][ny] = EMPTY;
-                        }
-                        if (dx * dx + dy * dy >= 64) {
-                            if (random.nextFloat() < 0.5f) {
-                                gridBuffer[nx][ny] = FIRE;
-                                fireLifeGrid[nx][ny] = 100;
-                            }
-                            if (random.nextFloat() < 0.7f) {
-                                createSmokeAround(nx, ny);
-                            }
-                        }
-                    }
-                }
+    // Запись кадров включается и выключается в потоке симуляции между кадрами
+    private void toggleRecording() {
+        worldCommands.add(() -> {
+            if (recorder != null) {
+                stopRecording();
+            } else {
+                startRecording(new File("captures/capture_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date())));
             }
-        }
-    }
-    
-    private void updateExplosions() {
-        explosions.removeIf(explosion -> {
-            explosion.update();
-            return !explosion.isAlive();
         });
     }
     
-    // Методы для сохранения/загрузки
-    private void saveGame(String fileName) {
+    private void startRecording(File directory) {
         try {
-            File file = new File("saves/" + fileName + ".sand");
-            FileOutputStream fos = new FileOutputStream(file);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            
-            oos.writeObject(grid);
-            oos.close();
-            fos.close();
-            
-            System.out.println("Игра сохранена: " + fileName);
-            refreshSaveFiles();
+            FrameRecorder newRecorder = new FrameRecorder(directory, captureFormat, WIDTH, HEIGHT,
+                    FrameRecorder.DEFAULT_BUFFERS, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            renderer.setRecorder(newRecorder);
+            recorder = newRecorder;
+            System.out.println("Запись кадров: " + directory);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
     
-    private void loadGame(String fileName) {
-        try {
-            File file = new File("saves/" + fileName + ".sand");
-            FileInputStream fis = new FileInputStream(file);
-            ObjectInputStream ois = new ObjectInputStream(fis);
-            
-            grid = (int[][]) ois.readObject();
-            ois.close();
-            fis.close();
-            
-            explosions.clear();
-            heatGrid = new int[COLS][ROWS];
-            fireLifeGrid = new int[COLS][ROWS];
-            lightGrid = new int[COLS][ROWS];
-            decayGrid = new int[COLS][ROWS];
-            System.out.println("Игра загружена: " + fileName);
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Ошибка загрузки файла: " + fileName, "Ошибка", JOptionPane.ERROR_MESSAGE);
+    private void stopRecording() {
+        FrameRecorder oldRecorder = recorder;
+        renderer.setRecorder(null);
+        recorder = null;
+        oldRecorder.close();
+        closingRecorders.removeIf(FrameRecorder::isFinished);
+        closingRecorders.add(oldRecorder);
+        System.out.println("Запись остановлена: " + oldRecorder.directory() + ", кадров " + oldRecorder.offeredFrames()
+                + ", пропущено " + oldRecorder.droppedFrames());
+        SwingUtilities.invokeLater(this::repaintHud);
+    }
+    
+    // Выход из программы (окно закрыто, EXIT_ON_CLOSE): дописываем принятые кадры и закрываем
+    // файл записи, пока JVM не остановила потоки кодировщиков
+    private void finishRecordingOnExit() {
+        FrameRecorder currentRecorder = recorder;
+        if (currentRecorder != null) {
+            closingRecorders.add(currentRecorder);
+        }
+        for (FrameRecorder activeRecorder : closingRecorders) {
+            try {
+                activeRecorder.stop(FrameRecorder.STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
     }
     
@@ -1484,48 +327,22 @@ public class Main extends JPanel implements Runnable, MouseListener, MouseMotion
     
     @Override
     protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
-        
-        // Отрисовка элементов с освещением
-        for (int x = 0; x < COLS; x++) {
-            for (int y = 0; y < ROWS; y++) {
-                int element = grid[x][y];
-                if (element != EMPTY) {
-                    Color color = getColorForElement(element);
-                    
-                    // Эффект нагрева для металлов, урана и угля
-                    if ((element == IRON || element == GOLD || element == COPPER || 
-                         element == URANIUM || element == COAL) && heatGrid[x][y] > 0) {
-                        float heatFactor = Math.min(1.0f, heatGrid[x][y] / 30.0f);
-                        color = applyHeatEffect(color, heatFactor);
-                    }
-                    
-                    // Эффект гниения для мяса
-                    if (element == MEAT && decayGrid[x][y] > 250) {
-                        float decayFactor = Math.min(1.0f, (decayGrid[x][y] - 250) / 250.0f);
-                        color = applyDecayEffect(color, decayFactor);
-                    }
-                    
-                    // Эффект освещения
-                    if (lightGrid[x][y] > 0) {
-                        color = applyLightEffect(color, lightGrid[x][y]);
-                    }
-                    
-                    g.setColor(color);
-                    g.fillRect(x * CELL_SIZE, y * CELL_SIZE, CELL_SIZE, CELL_SIZE);
-                }
-            }
-        }
-        
-        // Отрисовка взрывов
-        for (Explosion explosion : explosions) {
-            if (explosion.isAlive()) {
-                float alpha = explosion.life / 20.0f;
-                g.setColor(new Color(255, 165, 0, (int)(alpha * 255)));
-                int size = (int)(explosion.radius * CELL_SIZE * 2 * alpha);
-                g.fillOval(explosion.x * CELL_SIZE - size/2, explosion.y * CELL_SIZE - size/2, size, size);
-            }
-        }
+        drawScene(g);
+        perfStats.addPaint(System.nanoTime() - start);
+    }
+    
+    // Кадр активного режима: буфер после показа не сохраняет содержимое, рисуем все заново
+    private void drawActiveFrame(Graphics g) {
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        drawScene(g);
+    }
+    
+    private void drawScene(Graphics g) {
+        // Отрисовка элементов с освещением и взрывами: последний готовый кадр из потока симуляции
+        renderer.draw(g);
         
         // Отрисовка UI
         g.setColor(Color.WHITE);
@@ -1533,11 +350,30 @@ public class Main extends JPanel implements Runnable, MouseListener, MouseMotion
         g.drawString("Форма: " + (roundBrush ? "Круглая" : "Квадратная") + " | Скорость: " + simulationSpeed + "x", 10, 40);
         g.drawString("1-9,0,A-Z: элементы | +/-: размер | Ctrl+C: очистить | ПРОБЕЛ: пауза", 10, 60);
         g.drawString("Ctrl+A: круглая кисть | Ctrl+S: квадратная | Стрелки: скорость", 10, 80);
-        g.drawString("Ctrl+X: сохранить | Ctrl+L: загрузить", 10, 100);
+        g.drawString("Ctrl+X: сохранить | Ctrl+L: загрузить | Ctrl+R: запись кадров", 10, 100);
         g.drawString("Ё: песчаник | Alt+Ё: серый песок | Alt+1: торф", 10, 120);
+        g.drawString("Ctrl+P: многопоточная физика (" + (engine.isParallelPhysics() ? engine.getPhysicsThreads() + " потоков" : "выкл") + ")", 10, 140);
+        g.drawString("Колесо: масштаб | Правая кнопка: сдвиг | Home: весь вид сначала | F3: производительность", 10, 160);
+        
+        // FPS, тики и ровность кадров
+        g.drawString("FPS: " + framePacer.fps(), WIDTH - 80, 20);
+        g.drawString("Тиков/с: " + ticksPerSecond + (droppedTicks > 0 ? " (пропущено " + droppedTicks + ")" : ""), WIDTH - 260, 60);
+        g.drawString(String.format("Джиттер кадра: %.2f / макс %.2f мс", framePacer.averageJitterMs(), framePacer.maxJitterMs()), WIDTH - 260, 80);
+        if (presenter != null) {
+            g.drawString(String.format("Показ (%s): %.2f / макс %.2f мс", presenter.isPageFlipping() ? "flip" : "blit",
+                    presenter.averagePresentMs(), presenter.maxPresentMs()), WIDTH - 260, 100);
+            g.drawString(String.format("Кисть -> экран: %.1f мс", presenter.inputLatencyMs()), WIDTH - 260, 120);
+        }
+        
+        if (perfOverlay) {
+            drawPerfOverlay(g);
+        }
         
-        // FPS
-        g.drawString("FPS: " + fps, WIDTH - 80, 20);
+        FrameRecorder recorder = this.recorder;
+        if (recorder != null) {
+            g.setColor(Color.RED);
+            g.drawString("ЗАПИСЬ: кадров " + recorder.offeredFrames() + ", пропущено " + recorder.droppedFrames(), WIDTH - 260, 140);
+        }
         
         if (paused) {
             g.setColor(Color.RED);
@@ -1555,40 +391,79 @@ public class Main extends JPanel implements Runnable, MouseListener, MouseMotion
         }
     }
     
-    private Color applyHeatEffect(Color baseColor, float heatFactor) {
-        int r = baseColor.getRed();
-        int g = baseColor.getGreen();
-        int b = baseColor.getBlue();
-        
-        r = Math.min(255, r + (int)(100 * heatFactor));
-        g = Math.max(0, g - (int)(50 * heatFactor));
-        
-        return new Color(r, g, b);
-    }
-    
-    private Color applyDecayEffect(Color baseColor, float decayFactor) {
-        int r = baseColor.getRed();
-        int g = baseColor.getGreen();
-        int b = baseColor.getBlue();
-        
-        r = Math.max(0, r - (int)(50 * decayFactor));
-        g = Math.max(0, g - (int)(30 * decayFactor));
-        b = Math.max(0, b - (int)(70 * decayFactor));
-        
-        return new Color(r, g, b);
+    // Оверлей производительности: слева среднее и максимум каждой фазы за последние кадры,
+    // процентили тиков, сборщик мусора и население, справа - столбики фаз по кадрам
+    private void drawPerfOverlay(Graphics g) {
+        g.setColor(new Color(0, 0, 0, 190));
+        g.fillRect(PERF_X, PERF_Y, PERF_WIDTH, PERF_HEIGHT);
+        
+        int y = PERF_Y + 16;
+        for (int phase = 0; phase < PerfStats.PHASES; phase++) {
+            g.setColor(PHASE_COLORS[phase]);
+            g.fillRect(PERF_X + 8, y - 9, 8, 8);
+            g.setColor(Color.WHITE);
+            g.drawString(String.format("%s: %.2f / макс %.2f мс", PerfStats.PHASE_NAMES[phase],
+                    perfStats.averageMs(phase), perfStats.maxMs(phase)), PERF_X + 22, y);
+            y += 15;
+        }
+        
+        perfStats.tickPercentiles(TICK_PERCENTILES, tickPercentileMs, tickScratch);
+        g.drawString(String.format("Тик: p50 %.2f | p95 %.2f | p99 %.2f | макс %.2f мс",
+                tickPercentileMs[0], tickPercentileMs[1], tickPercentileMs[2], tickPercentileMs[3]), PERF_X + 8, y);
+        y += 15;
+        g.drawString(String.format("Активных клеток: %d | GC: %.1f мс/с, сборок %d",
+                perfStats.activeCells(), perfStats.gcMillisPerSecond(), perfStats.gcCollections()), PERF_X + 8, y);
+        y += 15;
+        drawPopulations(g, PERF_X + 8, y);
+        
+        // Столбики: по кадру на 2 пикселя, новые справа, линия - бюджет кадра 60 FPS
+        int graphX = PERF_X + PERF_WIDTH - 2 * PerfStats.HISTORY - 8;
+        int graphBottom = PERF_Y + 8 + PERF_GRAPH_HEIGHT;
+        for (int ago = 0; ago < perfStats.frameCount(); ago++) {
+            int x = graphX + 2 * (PerfStats.HISTORY - 1 - ago);
+            int top = graphBottom;
+            for (int phase = 0; phase < PerfStats.PHASES && top > graphBottom - PERF_GRAPH_HEIGHT; phase++) {
+                // Фоновый свет идет параллельно кадру, в столбик кадра его не складываем
+                if (phase == PerfStats.LIGHT_WORKER) continue;
+                int height = perfStats.phaseMicros(ago, phase) * PERF_GRAPH_HEIGHT / PERF_GRAPH_MICROS;
+                height = Math.min(height, top - (graphBottom - PERF_GRAPH_HEIGHT));
+                if (height <= 0) continue;
+                g.setColor(PHASE_COLORS[phase]);
+                g.fillRect(x, top - height, 2, height);
+                top -= height;
+            }
+        }
+        g.setColor(Color.RED);
+        g.drawLine(graphX, graphBottom - PERF_GRAPH_HEIGHT / 2, graphX + 2 * PerfStats.HISTORY, graphBottom - PERF_GRAPH_HEIGHT / 2);
+        g.setColor(Color.WHITE);
+        g.drawString("16.7 мс", graphX, graphBottom - PERF_GRAPH_HEIGHT / 2 - 3);
     }
     
-    private Color applyLightEffect(Color baseColor, int lightLevel) {
-        int r = baseColor.getRed();
-        int g = baseColor.getGreen();
-        int b = baseColor.getBlue();
-        
-        float lightFactor = Math.min(1.0f, lightLevel / 100.0f);
-        r = Math.min(255, r + (int)((255 - r) * lightFactor * 0.3f));
-        g = Math.min(255, g + (int)((255 - g) * lightFactor * 0.3f));
-        b = Math.min(255, b + (int)((255 - b) * lightFactor * 0.3f));
-        
-        return new Color(r, g, b);
+    // Самые многочисленные элементы (без пустоты), по 4 в строке
+    private void drawPopulations(Graphics g, int x, int y) {
+        int[] populations = perfStats.populations();
+        boolean[] shown = new boolean[populations.length];
+        StringBuilder line = new StringBuilder("Население: ");
+        for (int n = 0; n < 8; n++) {
+            int best = -1;
+            for (int id = 1; id < populations.length; id++) {
+                if (!shown[id] && populations[id] > 0 && (best < 0 || populations[id] > populations[best])) {
+                    best = id;
+                }
+            }
+            if (best < 0) break;
+            shown[best] = true;
+            if (n == 4) {
+                g.drawString(line.toString(), x, y);
+                y += 15;
+                line.setLength(0);
+                line.append("    ");
+            } else if (n > 0) {
+                line.append(", ");
+            }
+            line.append(getElementName(best)).append(' ').append(populations[best]);
+        }
+        g.drawString(line.toString(), x, y);
     }
     
     private void drawSaveMenu(Graphics g) {
@@ -1634,124 +509,36 @@ public class Main extends JPanel implements Runnable, MouseListener, MouseMotion
         }
     }
     
-    private Color getColorForElement(int element) {
-        switch (element) {
-            case SAND: return new Color(240, 230, 140);
-            case WATER: return new Color(30, 144, 255, 180);
-            case LAVA: return new Color(255, 69, 0);
-            case FIRE: 
-                Color[] fireColors = {Color.RED, Color.ORANGE, Color.YELLOW};
-                return fireColors[random.nextInt(fireColors.length)];
-            case EARTH: return new Color(139, 69, 19);
-            case STONE: return new Color(128, 128, 128);
-            case SMOKE: return new Color(105, 105, 105, 180);
-            case SEED: return new Color(34, 139, 34);
-            case GRASS: return new Color(50, 205, 50);
-            case WOOD: return new Color(101, 67, 33);
-            case ICE: return new Color(200, 230, 255, 220);
-            case OIL: return new Color(25, 25, 25);
-            case IRON: return new Color(192, 192, 192);
-            case NITROGEN: return new Color(70, 130, 180, 200);
-            case UNBREAKABLE: return new Color(50, 50, 50);
-            case ACID: return new Color(50, 255, 50, 200);
-            case GLASS: return new Color(200, 200, 255, 100);
-            case DYNAMITE: return new Color(178, 34, 34);
-            case GOLD: return new Color(255, 215, 0);
-            case COPPER: return new Color(184, 115, 51);
-            case SALT: return new Color(255, 255, 255);
-            case CEMENT: return new Color(210, 210, 210);
-            case RUBBER: return new Color(40, 40, 40);
-            case GASOLINE: return new Color(255, 255, 0, 150);
-            case MERCURY: return new Color(220, 220, 220);
-            case URANIUM: return new Color(0, 255, 0);
-            case MOLTEN_IRON: return new Color(255, 100, 0);
-            case MOLTEN_GOLD: return new Color(255, 200, 0);
-            case MOLTEN_COPPER: return new Color(255, 150, 50);
-            case LAMP: return new Color(255, 255, 200);
-            case ERASER: return Color.WHITE;
-            case MEAT: return new Color(200, 50, 50);
-            case ROTTEN_MEAT: return new Color(100, 80, 50);
-            case PUMPKIN: return new Color(255, 140, 0);
-            case WATERMELON: return new Color(0, 150, 0);
-            case JUICE: return new Color(255, 200, 100, 180);
-            case PUMPKIN_SEED: return new Color(150, 100, 50);
-            case WATERMELON_SEED: return new Color(100, 150, 50);
-            case APPLE_SEED: return new Color(120, 80, 40);
-            case CRUDE_OIL: return new Color(20, 20, 20);
-            case GAS: return new Color(100, 100, 255, 150); // Синий газ
-            case LIQUEFIED_GAS: return new Color(120, 120, 255);
-            case COAL: return new Color(30, 30, 30); // Темно-серый уголь
-            case SANDSTONE: return new Color(210, 180, 140); // Песчаник
-            case GRAY_SAND: return new Color(160, 160, 160); // Серый песок
-            case PEAT: return new Color(80, 60, 40); // НОВОЕ: Торф (темно-коричневый)
-            default: return Color.BLACK;
-        }
-    }
-    
     private String getElementName(int element) {
-        switch (element) {
-            case SAND: return "Песок";
-            case WATER: return "Вода";
-            case LAVA: return "Лава";
-            case FIRE: return "Огонь";
-            case EARTH: return "Земля";
-            case STONE: return "Камень";
-            case SMOKE: return "Дым";
-            case SEED: return "Семена";
-            case GRASS: return "Трава";
-            case WOOD: return "Дерево";
-            case ICE: return "Лёд";
-            case OIL: return "Масло";
-            case IRON: return "Железо";
-            case NITROGEN: return "Жидкий азот";
-            case UNBREAKABLE: return "Нерушимая стена";
-            case ACID: return "Кислота";
-            case GLASS: return "Стекло";
-            case DYNAMITE: return "Динамит";
-            case GOLD: return "Золото";
-            case COPPER: return "Медь";
-            case SALT: return "Соль";
-            case CEMENT: return "Цемент";
-            case RUBBER: return "Резина";
-            case GASOLINE: return "Бензин";
-            case MERCURY: return "Ртуть";
-            case URANIUM: return "Уран";
-            case MOLTEN_IRON: return "Расплавленное железо";
-            case MOLTEN_GOLD: return "Расплавленное золото";
-            case MOLTEN_COPPER: return "Расплавленная медь";
-            case LAMP: return "Лампа";
-            case ERASER: return "Ластик";
-            case MEAT: return "Мясо";
-            case ROTTEN_MEAT: return "Гнилое мясо";
-            case PUMPKIN: return "Тыква";
-            case WATERMELON: return "Арбуз";
-            case JUICE: return "Сок";
-            case PUMPKIN_SEED: return "Семена тыквы";
-            case WATERMELON_SEED: return "Семена арбуза";
-            case APPLE_SEED: return "Семена яблони";
-            case CRUDE_OIL: return "Нефть";
-            case GAS: return "Газ";
-            case LIQUEFIED_GAS: return "Сжиженный газ";
-            case COAL: return "Уголь";
-            case SANDSTONE: return "Песчаник";
-            case GRAY_SAND: return "Серый песок";
-            case PEAT: return "Торф"; // НОВОЕ: Торф
-            default: return "Пустота";
-        }
+        ElementType type = ElementType.get(element);
+        return type != null ? type.name : "Пустота";
     }
     
     private void placeElement(int x, int y) {
         if (showSaveMenu || showLoadMenu) return;
         
-        int gridX = x / CELL_SIZE;
-        int gridY = y / CELL_SIZE;
-        
+        Viewport view = viewport;
+        int gridX = (int) Math.floor(view.cellX(x));
+        int gridY = (int) Math.floor(view.cellY(y));
+        int element = currentElement;
+        int brushSize = this.brushSize;
+        boolean roundBrush = this.roundBrush;
+        long inputTime = System.nanoTime();
+        worldCommands.add(() -> {
+            paintBrush(gridX, gridY, element, brushSize, roundBrush);
+            if (unpresentedInputTime == 0) {
+                unpresentedInputTime = inputTime;
+            }
+        });
+    }
+    
+    private void paintBrush(int gridX, int gridY, int element, int brushSize, boolean roundBrush) {
         for (int dx = -brushSize; dx <= brushSize; dx++) {
             for (int dy = -brushSize; dy <= brushSize; dy++) {
                 int newX = gridX + dx;
                 int newY = gridY + dy;
                 
-                if (newX >= 0 && newX < COLS && newY >= 0 && newY < ROWS) {
+                if (newX >= 0 && newX < cols && newY >= 0 && newY < rows) {
                     boolean shouldPlace = false;
                     if (roundBrush) {
                         shouldPlace = (dx * dx + dy * dy <= brushSize * brushSize);
@@ -1760,41 +547,35 @@ public class Main extends JPanel implements Runnable, MouseListener, MouseMotion
                     }
                     
                     if (shouldPlace) {
-                        if (currentElement == ERASER) {
-                            grid[newX][newY] = EMPTY;
-                            heatGrid[newX][newY] = 0;
-                            fireLifeGrid[newX][newY] = 0;
-                            lightGrid[newX][newY] = 0;
-                            decayGrid[newX][newY] = 0;
-                        } else {
-                            grid[newX][newY] = currentElement;
-                            if (currentElement != URANIUM && 
-                                currentElement != IRON && 
-                                currentElement != GOLD && 
-                                currentElement != COPPER &&
-                                currentElement != COAL &&
-                                currentElement != SAND) { // Песок может нагреваться
-                                heatGrid[newX][newY] = 0;
-                            }
-                            if (currentElement == FIRE) {
-                                fireLifeGrid[newX][newY] = 100;
-                            } else {
-                                fireLifeGrid[newX][newY] = 0;
-                            }
-                            if (currentElement == MEAT) {
-                                decayGrid[newX][newY] = 0;
-                            }
-                        }
+                        engine.putElement(newX, newY, element);
                     }
                 }
             }
         }
     }
     
+    // Камеру меняет только EDT; мир, выведенный за экран, возвращается на место
+    private void setViewport(Viewport view) {
+        viewport = view.clamp(cols, rows, WIDTH, HEIGHT);
+    }
+    
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        if (showSaveMenu || showLoadMenu) return;
+        // Колесо от себя - приблизить
+        setViewport(viewport.zoomAt(e.getX(), e.getY(), -e.getWheelRotation()));
+    }
+    
     // Mouse events
     @Override
     public void mousePressed(MouseEvent e) {
         if (showSaveMenu || showLoadMenu) return;
+        if (SwingUtilities.isRightMouseButton(e) || SwingUtilities.isMiddleMouseButton(e)) {
+            panning = true;
+            panX = e.getX();
+            panY = e.getY();
+            return;
+        }
         mousePressed = true;
         placeElement(e.getX(), e.getY());
     }
@@ -1802,12 +583,17 @@ public class Main extends JPanel implements Runnable, MouseListener, MouseMotion
     @Override
     public void mouseReleased(MouseEvent e) {
         mousePressed = false;
+        panning = false;
     }
     
     @Override
     public void mouseDragged(MouseEvent e) {
         if (showSaveMenu || showLoadMenu) return;
-        if (mousePressed) {
+        if (panning) {
+            setViewport(viewport.panBy(e.getX() - panX, e.getY() - panY));
+            panX = e.getX();
+            panY = e.getY();
+        } else if (mousePressed) {
             placeElement(e.getX(), e.getY());
         }
     }
@@ -1824,113 +610,98 @@ public class Main extends JPanel implements Runnable, MouseListener, MouseMotion
             return;
         }
         
-        // Проверка комбинаций с Alt
+        // Проверка комбинаций с Alt (Alt+1 - торф, Alt+Ё - серый песок)
         if (e.isAltDown()) {
-            switch (e.getKeyCode()) {
-                case KeyEvent.VK_1: currentElement = PEAT; break; // Alt+1 - Торф
-                case KeyEvent.VK_2: currentElement = GRAY_SAND; break; // Alt+Ё - Серый песок
+            int element = ElementKeys.forKey(e.getKeyCode(), true);
+            if (element >= 0) {
+                currentElement = element;
+                repaintHud();
             }
             return;
         }
         
+        if (e.isControlDown() && handleControlKey(e.getKeyCode())) {
+            // Команды меняют кисть в HUD или открывают меню ниже HUD - перерисовываем все окно
+            repaint();
+            return;
+        }
+        
+        // Клавиши элементов берутся из таблицы ElementKeys
+        int element = ElementKeys.forKey(e.getKeyCode(), false);
+        if (element >= 0) {
+            currentElement = element;
+            repaintHud();
+            return;
+        }
+        
         switch (e.getKeyCode()) {
-            case KeyEvent.VK_1: currentElement = SAND; break;
-            case KeyEvent.VK_2: currentElement = WATER; break;
-            case KeyEvent.VK_3: currentElement = LAVA; break;
-            case KeyEvent.VK_4: currentElement = FIRE; break;
-            case KeyEvent.VK_5: currentElement = EARTH; break;
-            case KeyEvent.VK_6: currentElement = STONE; break;
-            case KeyEvent.VK_7: currentElement = SMOKE; break;
-            case KeyEvent.VK_8: currentElement = SEED; break;
-            case KeyEvent.VK_9: currentElement = GRASS; break;
-            case KeyEvent.VK_0: currentElement = ERASER; break;
-            case KeyEvent.VK_Q: currentElement = WOOD; break;
-            case KeyEvent.VK_W: currentElement = ICE; break;
-            case KeyEvent.VK_E: currentElement = IRON; break;
-            case KeyEvent.VK_R: currentElement = NITROGEN; break;
-            case KeyEvent.VK_T: currentElement = UNBREAKABLE; break;
-            case KeyEvent.VK_Y: currentElement = ACID; break;
-            case KeyEvent.VK_U: currentElement = GLASS; break;
-            case KeyEvent.VK_I: currentElement = DYNAMITE; break;
-            case KeyEvent.VK_O: currentElement = GOLD; break;
-            case KeyEvent.VK_P: currentElement = COPPER; break;
-            case KeyEvent.VK_A: 
-                if (e.isControlDown()) {
-                    roundBrush = true;
-                } else {
-                    currentElement = SALT;
-                }
-                break;
-            case KeyEvent.VK_S: 
-                if (e.isControlDown()) {
-                    roundBrush = false;
-                } else {
-                    currentElement = CEMENT;
-                }
-                break;
-            case KeyEvent.VK_D: currentElement = RUBBER; break;
-            case KeyEvent.VK_F: currentElement = GASOLINE; break;
-            case KeyEvent.VK_G: currentElement = MERCURY; break;
-            case KeyEvent.VK_H: currentElement = URANIUM; break;
-            case KeyEvent.VK_J: currentElement = LAMP; break;
-            case KeyEvent.VK_K: currentElement = MEAT; break;
-            case KeyEvent.VK_L: 
-                if (e.isControlDown()) {
-                    showLoadMenu = true;
-                    refreshSaveFiles();
-                    selectedSaveIndex = saveFiles.length > 0 ? 0 : -1;
-                } else {
-                    currentElement = PUMPKIN;
-                }
-                break;
-            case KeyEvent.VK_Z: currentElement = WATERMELON; break;
-            case KeyEvent.VK_X: 
-                if (e.isControlDown()) {
-                    showSaveMenu = true;
-                    saveFileName = "save_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-                    refreshSaveFiles();
-                } else {
-                    currentElement = JUICE;
-                }
-                break;
-            case KeyEvent.VK_C: 
-                if (e.isControlDown()) {
-                    grid = new int[COLS][ROWS];
-                    heatGrid = new int[COLS][ROWS];
-                    fireLifeGrid = new int[COLS][ROWS];
-                    lightGrid = new int[COLS][ROWS];
-                    decayGrid = new int[COLS][ROWS];
-                    explosions.clear();
-                } else {
-                    currentElement = PUMPKIN_SEED;
-                }
-                break;
-            case KeyEvent.VK_V: currentElement = WATERMELON_SEED; break;
-            case KeyEvent.VK_B: currentElement = APPLE_SEED; break;
-            case KeyEvent.VK_N: currentElement = ROTTEN_MEAT; break;
-            case KeyEvent.VK_M: currentElement = CRUDE_OIL; break;
-            case KeyEvent.VK_COMMA: currentElement = GAS; break;
-            case KeyEvent.VK_PERIOD: currentElement = LIQUEFIED_GAS; break;
-            case KeyEvent.VK_SLASH: currentElement = COAL; break;
-            case KeyEvent.VK_BACK_QUOTE: // Клавиша Ё
-                currentElement = SANDSTONE; 
-                break;
             case KeyEvent.VK_PLUS:
             case KeyEvent.VK_EQUALS:
                 brushSize = Math.min(15, brushSize + 1);
+                repaintHud();
                 break;
             case KeyEvent.VK_MINUS:
                 brushSize = Math.max(1, brushSize - 1);
+                repaintHud();
                 break;
             case KeyEvent.VK_SPACE:
                 paused = !paused;
+                repaintHud();
                 break;
             case KeyEvent.VK_UP:
                 simulationSpeed = Math.min(5.0f, simulationSpeed + 0.5f);
+                repaintHud();
                 break;
             case KeyEvent.VK_DOWN:
                 simulationSpeed = Math.max(0.1f, simulationSpeed - 0.5f);
+                repaintHud();
+                break;
+            case KeyEvent.VK_HOME:
+                setViewport(new Viewport(0, 0, DEFAULT_ZOOM));
                 break;
+            case KeyEvent.VK_F3:
+                perfOverlay = !perfOverlay;
+                repaint();
+                break;
+        }
+    }
+    
+    // Полоса HUD сверху окна: мир под ней перерисовывается по грязным плиткам, а надписи HUD -
+    // раз в секунду и сразу после того, как клавиша поменяла то, что в них показано
+    private void repaintHud() {
+        repaint(0, 0, WIDTH, HUD_HEIGHT);
+    }
+    
+    // Команды с Ctrl. Возвращает false, если у клавиши нет команды - тогда она выбирает элемент
+    private boolean handleControlKey(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.VK_A:
+                roundBrush = true;
+                return true;
+            case KeyEvent.VK_S:
+                roundBrush = false;
+                return true;
+            case KeyEvent.VK_P:
+                worldCommands.add(() -> engine.setParallelPhysics(!engine.isParallelPhysics(), engine.getPhysicsThreads()));
+                return true;
+            case KeyEvent.VK_L:
+                showLoadMenu = true;
+                refreshSaveFiles();
+                selectedSaveIndex = saveFiles.length > 0 ? 0 : -1;
+                return true;
+            case KeyEvent.VK_X:
+                showSaveMenu = true;
+                saveFileName = "save_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+                refreshSaveFiles();
+                return true;
+            case KeyEvent.VK_C:
+                worldCommands.add(engine::clear);
+                return true;
+            case KeyEvent.VK_R:
+                toggleRecording();
+                return true;
+            default:
+                return false;
         }
     }
     
@@ -2001,11 +772,21 @@ public class Main extends JPanel implements Runnable, MouseListener, MouseMotion
         Main game = new Main();
         
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        Runtime.getRuntime().addShutdownHook(new Thread(game::finishRecordingOnExit, "recorder-stop"));
         frame.setResizable(false);
-        frame.add(game);
+        if (Boolean.getBoolean("sandbox.activeRendering")) {
+            CanvasPresenter canvas = new CanvasPresenter(WIDTH, HEIGHT, Boolean.getBoolean("sandbox.vsync"));
+            game.attachPresenter(canvas);
+            frame.add(canvas);
+        } else {
+            frame.add(game);
+        }
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
+        if (game.presenter != null) {
+            game.presenter.requestFocus();
+        }
         
         new Thread(game).start();
     }
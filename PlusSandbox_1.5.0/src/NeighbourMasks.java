@@ -0,0 +1,139 @@
+// Маски присутствия элементов по соседству.
+// Для каждой клетки хранится байт с битами категорий (огонь, лава, вода, азот, уран, кислота,
+// нерушимая стена), которые есть в квадрате 3x3 вокруг нее, и отдельный байт для квадрата 5x5.
+// Проверки "есть ли рядом огонь" превращаются в проверку одного бита вместо обхода 9 или 25 клеток.
+//
+// Маски строятся целиком скользящим окном (сначала OR по строке, потом по столбцу) и дальше
+// поддерживаются точно: когда у клетки меняется категория, пересчитывается только ее окрестность.
+// Песок, камень и прочие элементы без категории масок вообще не трогают.
+public class NeighbourMasks {
+    public static final int FIRE = 1;
+    public static final int LAVA = 1 << 1;
+    public static final int WATER = 1 << 2;
+    public static final int NITROGEN = 1 << 3;
+    public static final int URANIUM = 1 << 4;
+    public static final int ACID = 1 << 5;
+    public static final int UNBREAKABLE = 1 << 6;
+
+    // Категории, которые ищут в радиусе 2 (квадрат 5x5)
+    private static final int WIDE = WATER;
+
+    // На что реагирует спящий сыпучий элемент: песок греется от огня и лавы вплотную,
+    // соль и цемент чувствуют воду через клетку. Серый песок и резина не реагируют ни на что
+    private static final byte[] WAKES_NEAR3 = new byte[ElementType.MAX_ID];
+    private static final byte[] WAKES_NEAR5 = new byte[ElementType.MAX_ID];
+    static {
+        WAKES_NEAR3[SandboxEngine.SAND] = FIRE | LAVA;
+        WAKES_NEAR5[SandboxEngine.SALT] = WATER;
+        WAKES_NEAR5[SandboxEngine.CEMENT] = WATER;
+    }
+
+    private static final byte[] BITS = new byte[ElementType.MAX_ID];
+    static {
+        BITS[SandboxEngine.FIRE] = FIRE;
+        BITS[SandboxEngine.LAVA] = LAVA;
+        BITS[SandboxEngine.WATER] = WATER;
+        BITS[SandboxEngine.NITROGEN] = NITROGEN;
+        BITS[SandboxEngine.URANIUM] = URANIUM;
+        BITS[SandboxEngine.ACID] = ACID;
+        BITS[SandboxEngine.UNBREAKABLE] = UNBREAKABLE;
+    }
+
+    private final int cols;
+    private final int rows;
+    private final byte[] bits;  // категория самой клетки
+    private final byte[] row3;  // OR категорий по строке: x-1..x+1
+    private final byte[] row5;  // OR категорий по строке: x-2..x+2
+    private final byte[] near3; // квадрат 3x3
+    private final byte[] near5; // квадрат 5x5
+
+    public NeighbourMasks(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        int size = cols * rows;
+        bits = new byte[size];
+        row3 = new byte[size];
+        row5 = new byte[size];
+        near3 = new byte[size];
+        near5 = new byte[size];
+    }
+
+    public boolean has3(int x, int y, int mask) {
+        return (near3[y * cols + x] & mask) != 0;
+    }
+
+    public boolean has5(int x, int y, int mask) {
+        return (near5[y * cols + x] & mask) != 0;
+    }
+
+    // Рядом с элементом нет того, на что он реагирует: только тогда он может спать (CellGrid.isAsleep)
+    public boolean calm(int index, int element) {
+        return (near3[index] & WAKES_NEAR3[element]) == 0 && (near5[index] & WAKES_NEAR5[element]) == 0;
+    }
+
+    // Полная перестройка по словам клеток CellGrid (младший байт - ID элемента)
+    void rebuild(int[] cells) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = BITS[cells[i] & 0xFF];
+        }
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                row3[y * cols + x] = rowOr(x, y, 1);
+                row5[y * cols + x] = rowOr(x, y, 2);
+            }
+        }
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                near3[y * cols + x] = columnOr(row3, x, y, 1);
+                near5[y * cols + x] = columnOr(row5, x, y, 2);
+            }
+        }
+    }
+
+    // Клетка сменила элемент: пересчитываем окрестность, только если сменилась категория
+    void changed(int x, int y, int oldElement, int newElement) {
+        int oldBits = BITS[oldElement];
+        int newBits = BITS[newElement];
+        if (oldBits == newBits) return;
+
+        bits[y * cols + x] = (byte) newBits;
+        boolean wide = ((oldBits ^ newBits) & WIDE) != 0;
+
+        for (int nx = Math.max(0, x - 1); nx <= Math.min(cols - 1, x + 1); nx++) {
+            row3[y * cols + nx] = rowOr(nx, y, 1);
+        }
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(rows - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(cols - 1, x + 1); nx++) {
+                near3[ny * cols + nx] = columnOr(row3, nx, ny, 1);
+            }
+        }
+
+        if (wide) {
+            for (int nx = Math.max(0, x - 2); nx <= Math.min(cols - 1, x + 2); nx++) {
+                row5[y * cols + nx] = rowOr(nx, y, 2);
+            }
+            for (int ny = Math.max(0, y - 2); ny <= Math.min(rows - 1, y + 2); ny++) {
+                for (int nx = Math.max(0, x - 2); nx <= Math.min(cols - 1, x + 2); nx++) {
+                    near5[ny * cols + nx] = columnOr(row5, nx, ny, 2);
+                }
+            }
+        }
+    }
+
+    private byte rowOr(int x, int y, int radius) {
+        int rowStart = y * cols;
+        int result = 0;
+        for (int nx = Math.max(0, x - radius); nx <= Math.min(cols - 1, x + radius); nx++) {
+            result |= bits[rowStart + nx];
+        }
+        return (byte) result;
+    }
+
+    private byte columnOr(byte[] rowMasks, int x, int y, int radius) {
+        int result = 0;
+        for (int ny = Math.max(0, y - radius); ny <= Math.min(rows - 1, y + radius); ny++) {
+            result |= rowMasks[ny * cols + x];
+        }
+        return (byte) result;
+    }
+}
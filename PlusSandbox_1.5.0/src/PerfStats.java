@@ -0,0 +1,174 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Счетчики для оверлея производительности (F3 в окне).
+// По каждому кадру хранится время фаз за последние HISTORY кадров, по каждому тику - его
+// длительность за последние TICK_WINDOW тиков. Раз в секунду (sampleWorld) снимаются население
+// элементов, число клеток в активных чанках и время пауз сборщика мусора.
+//
+// Пишут поток симуляции (фазы движка, кадр, показ) и EDT (paintComponent), читает EDT.
+// Без блокировок: кольца пишутся до того, как сдвигается volatile-курсор, а читатель берет
+// только записи до курсора. Запись, которую успели перезаписать, даст один неточный столбик
+// на графике - для статистики это не страшно.
+public class PerfStats {
+    public static final int TICK_SETUP = 0;
+    public static final int PHYSICS = 1;
+    public static final int EFFECTS = 2;
+    public static final int LIGHTING = 3;
+    public static final int RENDER = 4;
+    public static final int PRESENT = 5;
+    public static final int PAINT = 6;
+    // Заливка света в фоновом потоке (см. SandboxEngine.updateLightingAsync): идет параллельно
+    // с остальными фазами, поэтому в длительность кадра не входит
+    public static final int LIGHT_WORKER = 7;
+    public static final int PHASES = 8;
+    public static final String[] PHASE_NAMES = {
+        "Подготовка тика", "Физика", "Эффекты", "Свет", "Сборка кадра", "Показ кадра", "paintComponent",
+        "Свет (фон)"
+    };
+
+    // Сколько последних кадров на графике и сколько тиков в процентилях (scratch в tickPercentiles)
+    public static final int HISTORY = 120;
+    public static final int TICK_WINDOW = 600;
+
+    // Время фаз по кадрам в микросекундах: строка кадра - PHASES чисел
+    private final int[] frameMicros = new int[HISTORY * PHASES];
+    private volatile int frameCursor;
+    // Накопление текущего кадра (поток симуляции)
+    private final long[] currentNanos = new long[PHASES];
+    // paintComponent идет в EDT между кадрами симуляции
+    private final AtomicLong pendingPaintNanos = new AtomicLong();
+
+    private final int[] tickMicros = new int[TICK_WINDOW];
+    private volatile int tickCursor;
+
+    // Снимок раз в секунду
+    private volatile int[] populations = new int[ElementType.MAX_ID];
+    private volatile int activeCells;
+    private volatile float gcMillisPerSecond;
+    private volatile int gcCollections;
+    private long lastGcTime = -1;
+    private long lastGcCount;
+    private long lastSampleTime;
+
+    // Время фазы в текущем кадре (поток симуляции); фаза может встретиться за кадр несколько раз
+    public void add(int phase, long nanos) {
+        currentNanos[phase] += nanos;
+    }
+
+    // Длительность одного тика целиком (поток симуляции)
+    public void addTick(long nanos) {
+        int cursor = tickCursor;
+        tickMicros[cursor % TICK_WINDOW] = (int) Math.min(Integer.MAX_VALUE, nanos / 1000);
+        tickCursor = cursor + 1;
+    }
+
+    // Время отрисовки окна (EDT)
+    public void addPaint(long nanos) {
+        pendingPaintNanos.addAndGet(nanos);
+    }
+
+    // Закрывает строку кадра (поток симуляции)
+    public void endFrame() {
+        currentNanos[PAINT] += pendingPaintNanos.getAndSet(0);
+        int cursor = frameCursor;
+        int row = (cursor % HISTORY) * PHASES;
+        for (int phase = 0; phase < PHASES; phase++) {
+            frameMicros[row + phase] = (int) Math.min(Integer.MAX_VALUE, currentNanos[phase] / 1000);
+            currentNanos[phase] = 0;
+        }
+        frameCursor = cursor + 1;
+    }
+
+    // Население, активные клетки и сборщик мусора - не чаще раза в секунду (поток симуляции)
+    public void sampleWorld(SandboxEngine engine, long now) {
+        if (lastSampleTime != 0 && now - lastSampleTime < 1_000_000_000L) return;
+        float seconds = (now - lastSampleTime) / 1e9f;
+        lastSampleTime = now;
+
+        int[] counts = new int[ElementType.MAX_ID];
+        CellGrid grid = engine.grid;
+        for (int i = 0; i < engine.cols * engine.rows; i++) {
+            counts[grid.get(i)]++;
+        }
+        populations = counts;
+        activeCells = grid.chunks.activeCellCount();
+
+        long gcTime = 0;
+        long gcCount = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcTime += Math.max(0, gc.getCollectionTime());
+            gcCount += Math.max(0, gc.getCollectionCount());
+        }
+        if (lastGcTime >= 0) {
+            gcMillisPerSecond = (gcTime - lastGcTime) / seconds;
+            gcCollections = (int) (gcCount - lastGcCount);
+        }
+        lastGcTime = gcTime;
+        lastGcCount = gcCount;
+    }
+
+    // Сколько кадров уже есть на графике
+    public int frameCount() {
+        return Math.min(frameCursor, HISTORY);
+    }
+
+    // Время фазы в кадре ago кадров назад (0 - последний законченный), в микросекундах
+    public int phaseMicros(int ago, int phase) {
+        int cursor = frameCursor;
+        if (ago >= Math.min(cursor, HISTORY)) return 0;
+        return frameMicros[((cursor - 1 - ago) % HISTORY) * PHASES + phase];
+    }
+
+    public float averageMs(int phase) {
+        int frames = frameCount();
+        if (frames == 0) return 0;
+        long sum = 0;
+        for (int ago = 0; ago < frames; ago++) {
+            sum += phaseMicros(ago, phase);
+        }
+        return sum / (float) frames / 1000f;
+    }
+
+    public float maxMs(int phase) {
+        int max = 0;
+        for (int ago = 0; ago < frameCount(); ago++) {
+            max = Math.max(max, phaseMicros(ago, phase));
+        }
+        return max / 1000f;
+    }
+
+    // Процентили длительности тика в миллисекундах: percentiles[i] от 0 до 100 -> result[i].
+    // scratch - рабочий массив не короче TICK_WINDOW
+    public void tickPercentiles(float[] percentiles, float[] result, int[] scratch) {
+        int count = Math.min(tickCursor, TICK_WINDOW);
+        if (count == 0) {
+            Arrays.fill(result, 0);
+            return;
+        }
+        System.arraycopy(tickMicros, 0, scratch, 0, count);
+        Arrays.sort(scratch, 0, count);
+        for (int i = 0; i < percentiles.length; i++) {
+            int index = Math.min(count - 1, (int) Math.ceil(percentiles[i] / 100f * count) - 1);
+            result[i] = scratch[Math.max(0, index)] / 1000f;
+        }
+    }
+
+    public int[] populations() {
+        return populations;
+    }
+
+    public int activeCells() {
+        return activeCells;
+    }
+
+    public float gcMillisPerSecond() {
+        return gcMillisPerSecond;
+    }
+
+    public int gcCollections() {
+        return gcCollections;
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Random;
+
+// Замер масштабирования многопоточной физики по числу ядер.
+// Запуск: java -cp PlusSandbox.jar PhysicsBenchmark [ширина] [высота] [тики] [seed]
+// Для каждого числа потоков мир строится заново из одного и того же seed,
+// сверху все время идет дождь из частиц, чтобы большая часть чанков оставалась активной.
+public class PhysicsBenchmark {
+    private static final int WARMUP_TICKS = 100;
+
+    public static void main(String[] args) {
+        int cols = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Мир " + cols + "x" + rows + ", тиков: " + ticks + ", ядер: " + cores);
+        double serial = run(cols, rows, ticks, seed, 0);
+        System.out.printf("однопоточно: %8.3f мс/тик%n", serial);
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            report(threads, run(cols, rows, ticks, seed, threads), serial);
+            if (threads < cores && threads * 2 > cores) {
+                report(cores, run(cols, rows, ticks, seed, cores), serial);
+            }
+        }
+    }
+
+    private static void report(int threads, double msPerTick, double serial) {
+        System.out.printf("%2d потоков:  %8.3f мс/тик, ускорение x%.2f%n", threads, msPerTick, serial / msPerTick);
+    }
+
+    // Возвращает среднее время тика в миллисекундах; threads = 0 - однопоточный режим
+    private static double run(int cols, int rows, int ticks, long seed, int threads) {
+        SandboxEngine world = new SandboxEngine(cols, rows);
+        world.setSeed(seed);
+        world.setParallelPhysics(threads > 0, Math.max(1, threads));
+        Random random = new Random(seed);
+        fillScene(world, random);
+
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            rain(world, random);
+            world.step();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            rain(world, random);
+            world.step();
+        }
+        long elapsed = System.nanoTime() - start;
+        world.setParallelPhysics(false, 1);
+        return elapsed / 1e6 / ticks;
+    }
+
+    private static final int[] SCENE_ELEMENTS = {
+        SandboxEngine.SAND, SandboxEngine.WATER, SandboxEngine.OIL, SandboxEngine.LAVA, SandboxEngine.WOOD, SandboxEngine.STONE,
+        SandboxEngine.SALT, SandboxEngine.ACID, SandboxEngine.GRASS, SandboxEngine.EARTH, SandboxEngine.MERCURY, SandboxEngine.FIRE
+    };
+
+    // Случайная сцена из пятен разных элементов (ее же берет HeadlessRunner, если файл мира не задан)
+    static void fillScene(SandboxEngine world, Random random) {
+        int cols = world.cols;
+        int rows = world.rows;
+        int blobs = cols * rows / 400;
+        for (int b = 0; b < blobs; b++) {
+            int element = SCENE_ELEMENTS[random.nextInt(SCENE_ELEMENTS.length)];
+            int cx = random.nextInt(cols);
+            int cy = random.nextInt(rows);
+            int radius = 2 + random.nextInt(6);
+            for (int dy = -radius; dy <= radius; dy++) {
+                for (int dx = -radius; dx <= radius; dx++) {
+                    int x = cx + dx;
+                    int y = cy + dy;
+                    if (dx * dx + dy * dy <= radius * radius && x >= 0 && x < cols && y >= 0 && y < rows) {
+                        world.putElement(x, y, element);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void rain(SandboxEngine world, Random random) {
+        int cols = world.cols;
+        for (int i = 0; i < cols / 8; i++) {
+            int element = random.nextBoolean() ? SandboxEngine.SAND : SandboxEngine.WATER;
+            world.putElement(random.nextInt(cols), 0, element);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+// Замер отрисовки: время кадра и сколько байт выделяется в куче за кадр.
+// Запуск: java -cp PlusSandbox.jar RenderBenchmark [ширина] [высота] [кадры] [seed]
+// Мир заполняется целиком (с нагретыми металлами, гниющим мясом, огнем и светом),
+// чтобы через отрисовку проходили все эффекты. Растр (WorldRenderer.render) не должен
+// выделять память вообще - иначе программа сообщает об ошибке и выходит с кодом 1.
+// Экран всегда 800x600: в обычном масштабе (4 пикселя на клетку) и в самом мелком,
+// где кадр собирается из уменьшенного уровня детализации.
+public class RenderBenchmark {
+    private static final int WARMUP_FRAMES = 200;
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final Viewport NORMAL_VIEW = new Viewport(0, 0, 2);
+    private static final Viewport FAR_VIEW = new Viewport(0, 0, Viewport.MIN_ZOOM);
+
+    private static final int[] SCENE_ELEMENTS = {
+        SandboxEngine.SAND, SandboxEngine.WATER, SandboxEngine.LAVA, SandboxEngine.FIRE,
+        SandboxEngine.IRON, SandboxEngine.GOLD, SandboxEngine.MEAT, SandboxEngine.LAMP,
+        SandboxEngine.GLASS, SandboxEngine.URANIUM, SandboxEngine.COAL, SandboxEngine.SMOKE
+    };
+
+    public static void main(String[] args) {
+        int cols = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 150;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        SandboxEngine engine = new SandboxEngine(cols, rows);
+        fillScreen(engine, new Random(seed));
+        engine.updateLighting();
+
+        WorldRenderer renderer = new WorldRenderer(cols, rows, WIDTH, HEIGHT);
+        BufferedImage screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics g = screen.getGraphics();
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            renderer.render(engine, NORMAL_VIEW);
+            renderer.render(engine, FAR_VIEW);
+            renderer.draw(g);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            renderer.render(engine, NORMAL_VIEW);
+        }
+        long renderNanos = System.nanoTime() - start;
+        long renderBytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            renderer.render(engine, FAR_VIEW);
+        }
+        long farNanos = System.nanoTime() - start;
+
+        bytesBefore = threads.getThreadAllocatedBytes(thread);
+        start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            renderer.draw(g);
+        }
+        long drawNanos = System.nanoTime() - start;
+        long drawBytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        // Неподвижный мир: update должен сводиться к проверке отметок плиток
+        renderer.update(engine, NORMAL_VIEW);
+        renderer.update(engine, NORMAL_VIEW);
+        start = System.nanoTime();
+        int idleRects = 0;
+        for (int i = 0; i < frames; i++) {
+            idleRects += renderer.update(engine, NORMAL_VIEW);
+        }
+        long idleNanos = System.nanoTime() - start;
+
+        System.out.println("Мир " + cols + "x" + rows + ", кадров: " + frames
+                + ", палитра: " + ColorPalette.sizeInBytes() / 1024 + " КБ");
+        System.out.printf("растр:    %7.3f мс/кадр, %8.1f байт/кадр%n", renderNanos / 1e6 / frames, renderBytes / (double) frames);
+        System.out.printf("растр 1/%d: %7.3f мс/кадр (уровень детализации %d)%n",
+                1 << FAR_VIEW.lodLevel(), farNanos / 1e6 / frames, FAR_VIEW.lodLevel());
+        System.out.printf("drawImage: %7.3f мс/кадр, %8.1f байт/кадр%n", drawNanos / 1e6 / frames, drawBytes / (double) frames);
+        System.out.printf("без изменений: %7.4f мс/кадр, грязных областей: %d%n", idleNanos / 1e6 / frames, idleRects);
+
+        // Сам замер может выделить пару объектов, поэтому допускаем меньше байта на кадр
+        if (renderBytes >= frames) {
+            System.out.println("ОШИБКА: отрисовка растра выделяет память");
+            System.exit(1);
+        }
+    }
+
+    private static void fillScreen(SandboxEngine engine, Random random) {
+        for (int y = 0; y < engine.rows; y++) {
+            for (int x = 0; x < engine.cols; x++) {
+                int element = SCENE_ELEMENTS[random.nextInt(SCENE_ELEMENTS.length)];
+                engine.putElement(x, y, element);
+                engine.grid.setHeat(x, y, random.nextInt(40));
+                engine.grid.setDecay(x, y, random.nextInt(512));
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+// Быстрый генератор случайных чисел для физики (xoshiro256**).
+// В отличие от java.util.Random он не синхронизирован и не делает CAS на каждый вызов,
+// поэтому у каждого потока физики должен быть свой экземпляр.
+//
+// Вероятности проверяются целочисленно: chance(threshold) сравнивает 24 случайных бита
+// с порогом, заранее посчитанным через threshold(p). Это дает ту же вероятность,
+// что и nextFloat() < p, но без перевода в float.
+// Случайные биты для nextBoolean берутся из одного 64-битного числа по очереди.
+public final class Rng {
+    private static final float ONE_24 = 1 << 24;
+
+    private long s0, s1, s2, s3;
+    private long bits;
+    private int bitCount;
+
+    public Rng(long seed) {
+        setSeed(seed);
+    }
+
+    // Состояние заполняется через SplitMix64, чтобы даже соседние seed давали разные потоки чисел
+    public void setSeed(long seed) {
+        s0 = splitMix(seed += 0x9E3779B97F4A7C15L);
+        s1 = splitMix(seed += 0x9E3779B97F4A7C15L);
+        s2 = splitMix(seed += 0x9E3779B97F4A7C15L);
+        s3 = splitMix(seed + 0x9E3779B97F4A7C15L);
+        bitCount = 0;
+    }
+
+    // Новый независимый генератор (например, для потока пула)
+    public Rng split() {
+        return new Rng(nextLong());
+    }
+
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    public boolean nextBoolean() {
+        if (bitCount == 0) {
+            bits = nextLong();
+            bitCount = 64;
+        }
+        boolean result = (bits & 1) != 0;
+        bits >>>= 1;
+        bitCount--;
+        return result;
+    }
+
+    // Число от 0 до bound - 1 (умножение вместо деления по модулю)
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    public float nextFloat() {
+        return (nextLong() >>> 40) / ONE_24;
+    }
+
+    // true с вероятностью threshold / 2^24
+    public boolean chance(int threshold) {
+        return (int) (nextLong() >>> 40) < threshold;
+    }
+
+    // Порог для chance: вероятность p в 24-битной шкале
+    public static int threshold(float p) {
+        return (int) (p * ONE_24);
+    }
+
+    private static long splitMix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,1799 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+// Симуляция мира без интерфейса: сетка клеток, свет, взрывы и все правила элементов.
+// Не зависит от Swing/AWT, поэтому ее можно гонять на сервере, в замерах (PhysicsBenchmark)
+// и из консоли (HeadlessRunner). Main только рисует состояние движка и передает ему ввод.
+//
+// Все методы, меняющие мир, вызываются из одного потока симуляции
+// (в многопоточном режиме он сам раздает чанки пулу).
+public class SandboxEngine {
+    // Элементы
+    public static final int EMPTY = 0;
+    public static final int SAND = 1;
+    public static final int WATER = 2;
+    public static final int LAVA = 3;
+    public static final int FIRE = 4;
+    public static final int EARTH = 5;
+    public static final int STONE = 6;
+    public static final int SMOKE = 7;
+    public static final int SEED = 8;
+    public static final int GRASS = 9;
+    public static final int WOOD = 10;
+    public static final int ICE = 11;
+    public static final int OIL = 12;
+    public static final int ERASER = 13;
+    public static final int IRON = 14;
+    public static final int NITROGEN = 15;
+    public static final int UNBREAKABLE = 16;
+    public static final int ACID = 17;
+    public static final int GLASS = 18;
+    public static final int DYNAMITE = 19;
+    public static final int GOLD = 20;
+    public static final int COPPER = 21;
+    public static final int SALT = 22;
+    public static final int CEMENT = 23;
+    public static final int RUBBER = 24;
+    public static final int GASOLINE = 25;
+    public static final int MERCURY = 26;
+    public static final int URANIUM = 27;
+    public static final int MOLTEN_IRON = 28;
+    public static final int MOLTEN_GOLD = 29;
+    public static final int MOLTEN_COPPER = 30;
+    public static final int LAMP = 31;
+    
+    // НОВЫЕ ЭЛЕМЕНТЫ
+    public static final int MEAT = 32;
+    public static final int ROTTEN_MEAT = 33;
+    public static final int PUMPKIN = 34;
+    public static final int WATERMELON = 35;
+    public static final int JUICE = 36;
+    public static final int PUMPKIN_SEED = 37;
+    public static final int WATERMELON_SEED = 38;
+    public static final int APPLE_SEED = 39;
+    
+    // НОВЫЕ ЭЛЕМЕНТЫ: Нефть, Газ, Сжиженный газ, Уголь
+    public static final int CRUDE_OIL = 40;      // Нефть
+    public static final int GAS = 41;            // Газ
+    public static final int LIQUEFIED_GAS = 42;  // Сжиженный газ
+    public static final int COAL = 43;           // Уголь
+    
+    // НОВЫЕ ЭЛЕМЕНТЫ: Песчаник и серый песок
+    public static final int SANDSTONE = 44;      // Песчаник
+    public static final int GRAY_SAND = 45;      // Серый песок
+    
+    // НОВЫЙ ЭЛЕМЕНТ: Торф
+    public static final int PEAT = 46;           // Торф
+    
+    // Размер мира в клетках
+    public final int cols;
+    public final int rows;
+    
+    // Сетка элементов хранится плоско, строка за строкой (см. CellGrid)
+    final CellGrid grid;
+    
+    // Выравнивание и сон тел жидкостей (см. LiquidBodies)
+    final LiquidBodies liquids;
+    
+    // Для света ламп: цветной свет клетки (каналы RGB по 0..100, см. LightColor), плоско по индексу сетки.
+    // Свет каждый раз считается заново и не переносится вместе с частицей, поэтому лежит отдельно.
+    // Это опубликованный свет: его читает отрисовка, меняет только поток симуляции
+    final int[] lightGrid;
+    // Рабочий свет, в который пишет пересчет (в фоне - поток света, см. updateLightingAsync).
+    // В lightGrid переносятся только плитки, где он изменился
+    private final int[] workLight;
+    // Свет теряет LIGHT_FALLOFF в каждом канале на каждой клетке пути
+    private static final int MAX_LIGHT_LEVEL = LightColor.MAX_LEVEL;
+    private static final int LIGHT_FALLOFF = 15;
+    // Для каждой клетки: собственный свет << 1 | пропускает ли свет (-1 - еще не смотрели).
+    // По разнице с сеткой видно, где свет надо пересчитать (см. updateLighting)
+    private final int[] lightSignatures;
+    // Плитки, которые надо перезалить светом в этом пересчете. После пересчета отметки
+    // остаются до публикации: по ним видно, какие плитки сравнить с lightGrid
+    private final boolean[] relightTiles;
+    private boolean relightPending = false;
+    // Номер отметок плиток на момент прошлого пересчета света
+    private int lightEpoch = 0;
+    // Очереди заливки света: lightBuckets[уровень] - индексы клеток, у которых канал с этим уровнем (см. spreadLight)
+    private final int[][] lightBuckets = new int[MAX_LIGHT_LEVEL + 1][];
+    private final int[] lightBucketSizes = new int[MAX_LIGHT_LEVEL + 1];
+    // Фоновый пересчет света: один поток, одна задача за раз. Пока задача идет, она владеет
+    // workLight, lightSignatures, relightTiles и корзинами, а поток симуляции их не трогает
+    private ExecutorService lightExecutor;
+    private final Runnable lightJob = this::runLightJob;
+    private volatile boolean lightJobRunning = false;
+    private volatile long lightJobNanos;
+    
+    // Время фаз для оверлея производительности (см. PerfStats)
+    private PerfStats perfStats;
+    
+    // Вспышки взрывов, искры и обломки (см. EffectPool)
+    final EffectPool effects = new EffectPool(EffectPool.DEFAULT_CAPACITY);
+    
+    // Генератор для правил физики в потоке симуляции (у потоков пула свои)
+    private final Rng simulationRandom = new Rng(System.nanoTime());
+    
+    // Пороги вероятностей для Rng.chance, посчитанные один раз (P_0_3 - вероятность 0.3)
+    private static final int P_0_0001 = Rng.threshold(0.0001f);
+    private static final int P_0_0002 = Rng.threshold(0.0002f);
+    private static final int P_0_001 = Rng.threshold(0.001f);
+    private static final int P_0_002 = Rng.threshold(0.002f);
+    private static final int P_0_005 = Rng.threshold(0.005f);
+    private static final int P_0_008 = Rng.threshold(0.008f);
+    private static final int P_0_01 = Rng.threshold(0.01f);
+    private static final int P_0_02 = Rng.threshold(0.02f);
+    private static final int P_0_03 = Rng.threshold(0.03f);
+    private static final int P_0_05 = Rng.threshold(0.05f);
+    private static final int P_0_08 = Rng.threshold(0.08f);
+    private static final int P_0_1 = Rng.threshold(0.1f);
+    private static final int P_0_12 = Rng.threshold(0.12f);
+    private static final int P_0_2 = Rng.threshold(0.2f);
+    private static final int P_0_3 = Rng.threshold(0.3f);
+    private static final int P_0_4 = Rng.threshold(0.4f);
+    private static final int P_0_5 = Rng.threshold(0.5f);
+    private static final int P_0_6 = Rng.threshold(0.6f);
+    private static final int P_0_7 = Rng.threshold(0.7f);
+    private static final int P_0_8 = Rng.threshold(0.8f);
+    private static final int P_0_9 = Rng.threshold(0.9f);
+    
+    // Многопоточная физика: чанки обновляются в 4 фазы шахматной раскраски на пуле с перехватом задач.
+    // Одновременно обрабатываются только чанки одного цвета, между ними всегда лежит целый чанк,
+    // а правила пишут не дальше 2 клеток от себя, поэтому потоки не пересекаются
+    private boolean parallelPhysics = false;
+    private int physicsThreads = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool physicsPool;
+    private int[] phaseChunks;
+    private boolean inParallelPhase = false;
+    // Взрывы задевают несколько чанков сразу, поэтому в параллельной фазе они откладываются
+    // и применяются после нее в одном потоке: {x, y, радиус, 1 - ядерный}
+    private final Queue<int[]> pendingExplosions = new ConcurrentLinkedQueue<>();
+    
+    // Поток физики со своим генератором случайных чисел, чтобы потоки не делили один Random
+    static class PhysicsWorker extends ForkJoinWorkerThread {
+        final Rng random;
+        
+        PhysicsWorker(ForkJoinPool pool, Rng random) {
+            super(pool);
+            this.random = random;
+        }
+    }
+    
+    // Обновляет список чанков одной фазы, деля его пополам, пока кусок не станет маленьким
+    class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        
+        ChunkTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= 2) {
+                // Генератор потока берется один раз на задачу и передается в правила
+                Rng random = ((PhysicsWorker) Thread.currentThread()).random;
+                for (int i = from; i < to; i++) {
+                    updateChunk(phaseChunks[i], random);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(from, middle), new ChunkTask(middle, to));
+            }
+        }
+    }
+    
+    public SandboxEngine(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        this.grid = new CellGrid(cols, rows);
+        this.liquids = new LiquidBodies(grid);
+        this.lightGrid = new int[cols * rows];
+        this.workLight = new int[cols * rows];
+        for (int level = 0; level <= MAX_LIGHT_LEVEL; level++) {
+            lightBuckets[level] = new int[64];
+        }
+        this.lightSignatures = new int[cols * rows];
+        Arrays.fill(lightSignatures, -1);
+        this.relightTiles = new boolean[grid.tileCols * grid.tileRows];
+    }
+    
+    // Один шаг мира без света: физика и эффекты взрывов
+    public void step() {
+        long start = System.nanoTime();
+        // Сетка обновляется на месте, без копии в буфер.
+        // Клетки, которые уже сдвинулись или изменились в этом тике, пропускаются по отметке тика
+        grid.beginTick();
+        long physicsStart = System.nanoTime();
+        updatePhysics();
+        liquids.level();
+        long effectsStart = System.nanoTime();
+        updateEffects();
+        long end = System.nanoTime();
+        
+        if (perfStats != null) {
+            perfStats.add(PerfStats.TICK_SETUP, physicsStart - start);
+            perfStats.add(PerfStats.PHYSICS, effectsStart - physicsStart);
+            perfStats.add(PerfStats.EFFECTS, end - effectsStart);
+            perfStats.addTick(end - start);
+        }
+    }
+    
+    // Куда писать время фаз тика и света (null - никуда)
+    public void setPerfStats(PerfStats perfStats) {
+        this.perfStats = perfStats;
+    }
+    
+    public void setSeed(long seed) {
+        simulationRandom.setSeed(seed);
+    }
+    
+    public void setParallelPhysics(boolean enabled, int threads) {
+        if (physicsPool != null && threads != physicsThreads) {
+            physicsPool.shutdown();
+            physicsPool = null;
+        }
+        physicsThreads = threads;
+        parallelPhysics = enabled;
+    }
+    
+    public boolean isParallelPhysics() {
+        return parallelPhysics;
+    }
+    
+    public int getPhysicsThreads() {
+        return physicsThreads;
+    }
+    
+    public int getElement(int x, int y) {
+        return grid.get(x, y);
+    }
+    
+    public void clear() {
+        grid.clear();
+        liquids.reset();
+        resetLight();
+        effects.clear();
+    }
+    
+    // Формат файла мира прежний: сериализованный массив int[x][y] с ID элементов
+    public void saveWorld(File file) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+            oos.writeObject(grid.toArray());
+        }
+    }
+    
+    public void loadWorld(File file) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+            grid.loadFrom((int[][]) ois.readObject());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Неверный формат файла мира: " + file, e);
+        }
+        liquids.reset();
+        effects.clear();
+        resetLight();
+    }
+    
+    // Ставит один элемент в клетку так же, как это делает кисть
+    public void putElement(int x, int y, int element) {
+        if (element == ERASER) {
+            grid.set(x, y, EMPTY);
+            grid.setHeat(x, y, 0);
+            grid.setFireLife(x, y, 0);
+            grid.setDecay(x, y, 0);
+        } else {
+            grid.set(x, y, element);
+            if (!ElementType.has(element, ElementType.HEATABLE)) {
+                grid.setHeat(x, y, 0);
+            }
+            if (element == FIRE) {
+                grid.setFireLife(x, y, 100);
+            } else {
+                grid.setFireLife(x, y, 0);
+            }
+            if (element == MEAT) {
+                grid.setDecay(x, y, 0);
+            }
+        }
+    }
+    
+    private void updatePhysics() {
+        if (parallelPhysics) {
+            updatePhysicsParallel();
+            return;
+        }
+        
+        // Обновляем физику снизу вверх для стабильности.
+        // В каждой строке проходим только по грязным прямоугольникам активных чанков,
+        // спящие области мира не трогаем совсем
+        ChunkScheduler chunks = grid.chunks;
+        for (int y = rows - 2; y >= 0; y--) {
+            int cy = y / ChunkScheduler.CHUNK_SIZE;
+            for (int cx = 0; cx < chunks.chunkCols; cx++) {
+                int chunk = chunks.chunkIndex(cx, cy);
+                if (!chunks.isActive(chunk) || y < chunks.minY(chunk) || y > chunks.maxY(chunk)) continue;
+                updateChunkRow(chunk, y, simulationRandom);
+            }
+        }
+    }
+    
+    private void updatePhysicsParallel() {
+        ChunkScheduler chunks = grid.chunks;
+        if (physicsPool == null) {
+            physicsPool = createPhysicsPool(physicsThreads);
+        }
+        if (phaseChunks == null) {
+            phaseChunks = new int[chunks.chunkCols * chunks.chunkRows];
+        }
+        
+        inParallelPhase = true;
+        try {
+            // Фаза = цвет чанка в раскраске 2x2: (cx % 2) + 2 * (cy % 2)
+            for (int phase = 0; phase < 4; phase++) {
+                int count = 0;
+                for (int cy = phase >> 1; cy < chunks.chunkRows; cy += 2) {
+                    for (int cx = phase & 1; cx < chunks.chunkCols; cx += 2) {
+                        int chunk = chunks.chunkIndex(cx, cy);
+                        if (chunks.isActive(chunk)) {
+                            phaseChunks[count++] = chunk;
+                        }
+                    }
+                }
+                if (count > 0) {
+                    physicsPool.invoke(new ChunkTask(0, count));
+                }
+            }
+        } finally {
+            inParallelPhase = false;
+        }
+        
+        int[] explosion;
+        while ((explosion = pendingExplosions.poll()) != null) {
+            if (explosion[3] == 1) {
+                createNuclearExplosion(explosion[0], explosion[1]);
+            } else {
+                createExplosion(explosion[0], explosion[1], explosion[2]);
+            }
+        }
+    }
+    
+    private ForkJoinPool createPhysicsPool(int threads) {
+        Rng seeds = simulationRandom.split();
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            synchronized (seeds) {
+                return new PhysicsWorker(pool, seeds.split());
+            }
+        };
+        return new ForkJoinPool(threads, factory, null, false);
+    }
+    
+    // Весь чанк снизу вверх - так же, как идет однопоточный проход
+    private void updateChunk(int chunk, Rng random) {
+        ChunkScheduler chunks = grid.chunks;
+        int top = chunks.minY(chunk);
+        for (int y = Math.min(chunks.maxY(chunk), rows - 2); y >= top; y--) {
+            updateChunkRow(chunk, y, random);
+        }
+    }
+    
+    private void updateChunkRow(int chunk, int y, Rng random) {
+        ChunkScheduler chunks = grid.chunks;
+        int rowStart = grid.index(0, y);
+        int maxX = chunks.maxX(chunk);
+        for (int x = chunks.minX(chunk); x <= maxX; x++) {
+            int i = rowStart + x;
+            int element = grid.get(i);
+            int flags = ElementType.FLAGS[element];
+            
+            // Пустота и элементы без поведения (камень, стены, лампы) пропускаются одной проверкой
+            if ((flags & ElementType.STATIC) != 0 || grid.isStamped(i)) continue;
+            // Улежавшийся песок, соль и т.п. спят, пока рядом ничего не изменится
+            if ((flags & ElementType.SLEEPS) != 0 && grid.isAsleep(i, element)) continue;
+            
+            // Элементы со случайным поведением держат свою область активной
+            if ((flags & ElementType.ALWAYS_ACTIVE) != 0) {
+                chunks.markChanged(x, y);
+            }
+            updateCell(element, x, y, random);
+        }
+    }
+    
+    private void updateCell(int element, int x, int y, Rng random) {
+        switch (element) {
+            case SAND: updateSand(x, y, random); break;
+            case WATER: updateWater(x, y, random); break;
+            case LAVA: updateLava(x, y, random); break;
+            case FIRE: updateFire(x, y, random); break;
+            case EARTH: updateEarth(x, y); break;
+            case SMOKE: updateSmoke(x, y, random); break;
+            case SEED: updateSeed(x, y, random); break;
+            case GRASS: updateGrass(x, y, random); break;
+            case WOOD: updateWood(x, y, random); break;
+            case ICE: updateIce(x, y, random); break;
+            case OIL: updateOil(x, y, random); break;
+            case IRON: updateIron(x, y, random); break;
+            case NITROGEN: updateNitrogen(x, y, random); break;
+            case ACID: updateAcid(x, y, random); break;
+            case GLASS: updateGlass(x, y, random); break;
+            case DYNAMITE: updateDynamite(x, y, random); break;
+            case GOLD: updateGold(x, y, random); break;
+            case COPPER: updateCopper(x, y, random); break;
+            case SALT: updateSalt(x, y, random); break;
+            case CEMENT: updateCement(x, y, random); break;
+            case RUBBER: updateRubber(x, y); break;
+            case GASOLINE: updateGasoline(x, y, random); break;
+            case MERCURY: updateMercury(x, y, random); break;
+            case URANIUM: updateUranium(x, y, random); break;
+            case MOLTEN_IRON: updateMoltenIron(x, y, random); break;
+            case MOLTEN_GOLD: updateMoltenGold(x, y, random); break;
+            case MOLTEN_COPPER: updateMoltenCopper(x, y, random); break;
+            case MEAT: updateMeat(x, y, random); break;
+            case ROTTEN_MEAT: updateRottenMeat(x, y, random); break;
+            case PUMPKIN: updatePumpkin(x, y, random); break;
+            case WATERMELON: updateWatermelon(x, y, random); break;
+            case JUICE: updateJuice(x, y, random); break;
+            case PUMPKIN_SEED: updatePumpkinSeed(x, y, random); break;
+            case WATERMELON_SEED: updateWatermelonSeed(x, y, random); break;
+            case APPLE_SEED: updateAppleSeed(x, y, random); break;
+            case CRUDE_OIL: updateCrudeOil(x, y, random); break;
+            case GAS: updateGas(x, y, random); break;
+            case LIQUEFIED_GAS: updateLiquefiedGas(x, y, random); break;
+            case COAL: updateCoal(x, y, random); break;
+            case GRAY_SAND: updateGraySand(x, y, random); break;
+            case PEAT: updatePeat(x, y, random); break; // НОВОЕ: Торф
+        }
+    }
+    
+    // Свет нужен только для картинки, поэтому в step() не входит
+    // Свет пересчитывается только вокруг клеток, где с прошлого раза появился или пропал
+    // источник, поменялась его яркость или прозрачность клетки. Свет доходит не дальше
+    // чем на MAX_LIGHT_LEVEL / LIGHT_FALLOFF = 6 клеток, а плитка - 16 клеток, поэтому
+    // изменение в плитке может поменять свет только в ней и в соседних плитках.
+    // Эти плитки гасятся и заливаются заново (spreadLight) от источников внутри них и от уже
+    // верного света на их границе с остальным миром. Если в сетке ничего не менялось,
+    // вся работа - проход по отметкам плиток, поэтому неподвижные лампы почти ничего не стоят.
+    // Этот вариант считает все сразу в вызывающем потоке (для прогонов без окна и замеров)
+    public void updateLighting() {
+        long start = System.nanoTime();
+        awaitLightJob();
+        publishLight();
+        if (scanLightSignatures()) {
+            relightMarkedTiles();
+            publishLight();
+        }
+        
+        if (perfStats != null) {
+            perfStats.add(PerfStats.LIGHTING, System.nanoTime() - start);
+        }
+    }
+    
+    // То же, но заливка идет в фоновом потоке, раз за показанный кадр (вызывает поток симуляции).
+    // Здесь остаются только дешевые части: перенос готового света прошлой задачи в lightGrid
+    // и сверка признаков клеток с сеткой. Сама заливка читает только признаки и свой workLight,
+    // а не сетку, поэтому физика может идти дальше, пока она считается. Если задача еще
+    // не закончилась, кадр показывается со старым светом - свет отстает на кадр-другой,
+    // зато долгая заливка (много ламп, большой мир) больше не задерживает тики
+    public void updateLightingAsync() {
+        if (lightJobRunning) return;
+        long start = System.nanoTime();
+        if (relightPending && perfStats != null) {
+            perfStats.add(PerfStats.LIGHT_WORKER, lightJobNanos);
+        }
+        publishLight();
+        if (scanLightSignatures()) {
+            if (lightExecutor == null) {
+                lightExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "lighting");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            lightJobRunning = true;
+            lightExecutor.execute(lightJob);
+        }
+        
+        if (perfStats != null) {
+            perfStats.add(PerfStats.LIGHTING, System.nanoTime() - start);
+        }
+    }
+    
+    private void runLightJob() {
+        long start = System.nanoTime();
+        try {
+            relightMarkedTiles();
+        } finally {
+            lightJobNanos = System.nanoTime() - start;
+            lightJobRunning = false;
+        }
+    }
+    
+    // Ждет фоновую задачу, если она идет: после этого рабочие массивы света снова у потока симуляции
+    private void awaitLightJob() {
+        while (lightJobRunning) {
+            Thread.onSpinWait();
+        }
+    }
+    
+    // Гасит весь свет (очистка и загрузка мира)
+    private void resetLight() {
+        awaitLightJob();
+        Arrays.fill(lightGrid, 0);
+        Arrays.fill(workLight, 0);
+        Arrays.fill(lightSignatures, -1);
+        Arrays.fill(relightTiles, false);
+        relightPending = false;
+    }
+    
+    // Сверяет признаки клеток в плитках, менявшихся с прошлой сверки, и отмечает плитки
+    // для пересчета. Возвращает true, если есть что пересчитывать
+    private boolean scanLightSignatures() {
+        // Какие плитки менялись, видно по отметкам плиток (см. CellGrid)
+        int since = lightEpoch;
+        lightEpoch = grid.advanceTileEpoch();
+        
+        boolean relight = false;
+        for (int ty = 0; ty < grid.tileRows; ty++) {
+            for (int tx = 0; tx < grid.tileCols; tx++) {
+                if (grid.tileStamp(ty * grid.tileCols + tx) >= since && updateLightSignatures(tx, ty)) {
+                    markRelightArea(tx, ty);
+                    relight = true;
+                }
+            }
+        }
+        relightPending = relight;
+        return relight;
+    }
+    
+    // Переносит пересчитанные плитки из workLight в lightGrid и отмечает те, где свет изменился
+    private void publishLight() {
+        if (!relightPending) return;
+        relightPending = false;
+        int tileCols = grid.tileCols;
+        int tileSize = CellGrid.TILE_SIZE;
+        for (int tile = 0; tile < relightTiles.length; tile++) {
+            if (!relightTiles[tile]) continue;
+            relightTiles[tile] = false;
+            int x0 = (tile % tileCols) * tileSize;
+            int y0 = (tile / tileCols) * tileSize;
+            int x1 = Math.min(cols, x0 + tileSize);
+            int y1 = Math.min(rows, y0 + tileSize);
+            boolean changed = false;
+            for (int y = y0; y < y1; y++) {
+                int from = grid.index(x0, y);
+                int to = grid.index(x1, y);
+                if (!changed && !Arrays.equals(lightGrid, from, to, workLight, from, to)) {
+                    changed = true;
+                }
+                if (changed) {
+                    System.arraycopy(workLight, from, lightGrid, from, to - from);
+                }
+            }
+            if (changed) {
+                grid.markTileChanged(x0, y0);
+            }
+        }
+    }
+    
+    // Какой свет дает клетка сама. Самый яркий канал - прежний уровень света элемента
+    private static final int LAMP_LIGHT = LightColor.white(100);
+    private static final int FIRE_LIGHT = LightColor.pack(60, 45, 15);
+    private static final int LAVA_LIGHT = LightColor.pack(40, 20, 0);
+    private static final int URANIUM_LIGHT = LightColor.pack(10, 30, 5);
+    private static final int COAL_LIGHT = LightColor.pack(20, 8, 0);
+    
+    private int lightEmission(int x, int y, int element) {
+        if (element == LAMP) {
+            return LAMP_LIGHT; // Лампа дает сильный белый свет
+        } else if (element == FIRE) {
+            return FIRE_LIGHT; // Огонь дает средний желтоватый свет
+        } else if (element == LAVA) {
+            return LAVA_LIGHT; // Лава дает слабый оранжевый свет
+        } else if (element == URANIUM && grid.heat(x, y) > 50) {
+            return URANIUM_LIGHT; // Нагретый уран светится зеленым
+        } else if (element == COAL && grid.heat(x, y) > 10) {
+            return COAL_LIGHT; // Горящий уголь тлеет красным
+        }
+        return 0;
+    }
+    
+    // Обновляет признаки клеток плитки для света. Возвращает true, если хоть один изменился
+    private boolean updateLightSignatures(int tx, int ty) {
+        boolean changed = false;
+        int x0 = tx * CellGrid.TILE_SIZE;
+        int y0 = ty * CellGrid.TILE_SIZE;
+        int x1 = Math.min(cols, x0 + CellGrid.TILE_SIZE);
+        int y1 = Math.min(rows, y0 + CellGrid.TILE_SIZE);
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int index = grid.index(x, y);
+                int element = grid.get(index);
+                int signature = lightEmission(x, y, element) << 1
+                        | (ElementType.has(element, ElementType.TRANSMITS_LIGHT) ? 1 : 0);
+                if (lightSignatures[index] != signature) {
+                    lightSignatures[index] = signature;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+    
+    // Плитка и ее соседи по всем восьми направлениям
+    private void markRelightArea(int tx, int ty) {
+        for (int y = Math.max(0, ty - 1); y <= Math.min(grid.tileRows - 1, ty + 1); y++) {
+            for (int x = Math.max(0, tx - 1); x <= Math.min(grid.tileCols - 1, tx + 1); x++) {
+                relightTiles[y * grid.tileCols + x] = true;
+            }
+        }
+    }
+    
+    private void relightMarkedTiles() {
+        int tileCols = grid.tileCols;
+        int tileRows = grid.tileRows;
+        int tileSize = CellGrid.TILE_SIZE;
+        
+        // Гасим отмеченные плитки и ставим в очередь источники внутри них
+        for (int tile = 0; tile < relightTiles.length; tile++) {
+            if (!relightTiles[tile]) continue;
+            int x0 = (tile % tileCols) * tileSize;
+            int y0 = (tile / tileCols) * tileSize;
+            int x1 = Math.min(cols, x0 + tileSize);
+            int y1 = Math.min(rows, y0 + tileSize);
+            for (int y = y0; y < y1; y++) {
+                for (int index = grid.index(x0, y); index < grid.index(x1, y); index++) {
+                    int emission = lightSignatures[index] >> 1;
+                    workLight[index] = emission;
+                    if (emission != 0) {
+                        pushLight(index, LightColor.maxChannel(emission));
+                    }
+                }
+            }
+        }
+        
+        // Свет снаружи входит через клетки за краем отмеченных плиток: их свет уже верный,
+        // потому что изменения до них не достают. Достаточно соседей по сторонам
+        for (int tile = 0; tile < relightTiles.length; tile++) {
+            if (!relightTiles[tile]) continue;
+            int tx = tile % tileCols;
+            int ty = tile / tileCols;
+            int x0 = tx * tileSize;
+            int y0 = ty * tileSize;
+            int x1 = Math.min(cols, x0 + tileSize) - 1;
+            int y1 = Math.min(rows, y0 + tileSize) - 1;
+            if (ty > 0 && !relightTiles[tile - tileCols]) seedLightBorder(x0, y0 - 1, x1, y0 - 1);
+            if (ty < tileRows - 1 && !relightTiles[tile + tileCols]) seedLightBorder(x0, y1 + 1, x1, y1 + 1);
+            if (tx > 0 && !relightTiles[tile - 1]) seedLightBorder(x0 - 1, y0, x0 - 1, y1);
+            if (tx < tileCols - 1 && !relightTiles[tile + 1]) seedLightBorder(x1 + 1, y0, x1 + 1, y1);
+        }
+        
+        spreadLight();
+    }
+    
+    // Клетки x0..x1, y0..y1 с таким светом, что он пройдет еще хотя бы на клетку, - в очередь
+    private void seedLightBorder(int x0, int y0, int x1, int y1) {
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int index = grid.index(x, y);
+                int level = LightColor.maxChannel(workLight[index]);
+                if (level > LIGHT_FALLOFF) {
+                    pushLight(index, level);
+                }
+            }
+        }
+    }
+    
+    // Распространение света от клеток в очередях: заливка в ширину по корзинам уровней
+    // (алгоритм Дейкстры с корзинами, как у Дайала). Уровни разбираются от яркого к тусклому,
+    // поэтому клетка, вынутая из своей корзины, уже получила максимум из всех путей и больше
+    // не меняется. Каждый шаг через прозрачную клетку стоит LIGHT_FALLOFF, как и раньше.
+    // Раньше это был рекурсивный обход в глубину: он заново переписывал клетки, когда находился
+    // путь ярче, выделял массив направлений на каждый вызов и мог переполнить стек.
+    //
+    // Каналы цвета распространяются независимо, но одной заливкой: клетка идет в корзину
+    // своего самого яркого канала из тех, что стали ярче, а соседям передается весь ее свет
+    // сразу. Если потом у клетки посветлеет другой канал, она снова встанет в корзину,
+    // уже более тусклую. Для белого света это ровно прежняя заливка по одному уровню
+    private void spreadLight() {
+        for (int level = MAX_LIGHT_LEVEL; level > LIGHT_FALLOFF; level--) {
+            // Соседи попадают в корзины не ярче level - LIGHT_FALLOFF, так что эта во время обхода не растет
+            int[] bucket = lightBuckets[level];
+            int size = lightBucketSizes[level];
+            for (int n = 0; n < size; n++) {
+                int index = bucket[n];
+                int light = workLight[index];
+                // Канал, с которым клетку поставили в корзину, уже стал ярче - клетку разобрали
+                // в более яркой корзине вместе со всем ее светом, эта запись устарела
+                if (!LightColor.hasChannel(light, level)) continue;
+                
+                int nextLight = LightColor.dim(light, LIGHT_FALLOFF);
+                int x = index % cols;
+                int y = index / cols;
+                if (y > 0) lightNeighbour(index - cols, nextLight);
+                if (x < cols - 1) lightNeighbour(index + 1, nextLight);
+                if (y < rows - 1) lightNeighbour(index + cols, nextLight);
+                if (x > 0) lightNeighbour(index - 1, nextLight);
+            }
+        }
+        // Тусклым уровням распространяться некуда, их корзины (если туда попал слабый источник) просто очищаем
+        Arrays.fill(lightBucketSizes, 0);
+    }
+    
+    // Свет проходит через прозрачные материалы и песок. Прозрачность берется из признака клетки,
+    // а не из сетки: в фоне сетку в это время меняет физика
+    private void lightNeighbour(int index, int light) {
+        int current = workLight[index];
+        int mask = LightColor.brighterMask(light, current);
+        int brighter = light & mask;
+        if (brighter != 0 && (lightSignatures[index] & 1) != 0) {
+            workLight[index] = (current & ~mask) | brighter;
+            // Свет не ярче LIGHT_FALLOFF дальше не пройдет - в очередь его не ставим
+            int level = LightColor.maxChannel(brighter);
+            if (level > LIGHT_FALLOFF) {
+                pushLight(index, level);
+            }
+        }
+    }
+    
+    private void pushLight(int index, int lightLevel) {
+        int size = lightBucketSizes[lightLevel];
+        if (size == lightBuckets[lightLevel].length) {
+            // Корзины растут только когда света в мире больше, чем было до сих пор
+            lightBuckets[lightLevel] = Arrays.copyOf(lightBuckets[lightLevel], size * 2);
+        }
+        lightBuckets[lightLevel][size] = index;
+        lightBucketSizes[lightLevel] = size + 1;
+    }
+    
+    private void updateSand(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryMoveDiagonal(x, y, random)) return;
+        
+        // НОВАЯ МЕХАНИКА: Песок нагревается и превращается в песчаник
+        if (checkFireNearby(x, y) || checkLavaNearby(x, y)) {
+            grid.addHeat(x, y, 1);
+            if (grid.heat(x, y) > 50) {
+                // При сильном нагреве песок превращается в песчаник
+                grid.set(x, y, SANDSTONE);
+                grid.setHeat(x, y, 0);
+            }
+        } else if (grid.heat(x, y) > 0) {
+            // Постепенно остывает
+            grid.addHeat(x, y, -1);
+            keepAwake(x, y);
+        } else {
+            // Холодный песок без огня рядом просто лежит
+            rest(x, y);
+        }
+        
+        // НОВАЯ МЕХАНИКА: Песок ОЧЕНЬ медленно горит и превращается в серый песок
+        if (checkFireNearby(x, y) && random.chance(P_0_0001)) { // Очень медленное горение
+            grid.set(x, y, GRAY_SAND);
+        }
+    }
+    
+    // НОВЫЙ МЕТОД: Торф
+    private void updatePeat(int x, int y, Rng random) {
+        // Торф - горючий материал, похожий на землю
+        if (checkFireNearby(x, y) && random.chance(P_0_005)) {
+            grid.set(x, y, FIRE);
+            grid.setFireLife(x, y, 100);
+            createSmokeAround(x, y, random);
+        }
+        
+        // Торф может медленно тлеть
+        if (grid.get(x, y) == FIRE && random.chance(P_0_01)) {
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nx = x + dx;
+                    int ny = y + dy;
+                    if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                        grid.get(nx, ny) == PEAT && random.chance(P_0_1)) {
+                        grid.set(nx, ny, FIRE);
+                        grid.setFireLife(nx, ny, 80);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void updateGraySand(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryMoveDiagonal(x, y, random)) return;
+        
+        // Серый песок не горит и не нагревается
+        rest(x, y);
+    }
+    
+    private void updateWater(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        checkLavaInteraction(x, y, WATER, STONE);
+        checkFireInteraction(x, y, WATER, SMOKE);
+    }
+    
+    private void updateLava(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (random.chance(P_0_3) && tryFlow(x, y, random)) return;
+        
+        if (random.chance(P_0_02)) {
+            createFireAround(x, y, random);
+        }
+        
+        // Охлаждение лавы в камень (увеличили шанс)
+        if (random.chance(P_0_005)) {
+            grid.set(x, y, STONE);
+        }
+        
+        // Нагрев металлов
+        heatMetal(x, y, IRON, MOLTEN_IRON, P_0_8, random);
+        heatMetal(x, y, GOLD, MOLTEN_GOLD, P_0_7, random);
+        heatMetal(x, y, COPPER, MOLTEN_COPPER, P_0_9, random);
+        
+        // НЕ нагреваем камень - камень из застывшей лавы не плавится
+        // heatMetal(x, y, STONE, LAVA, 1.5f, random); // Убрано
+        
+        // Застывание от жидкого азота (увеличили шанс)
+        if (checkLiquidNitrogenNearby(x, y) && random.chance(P_0_8)) {
+            grid.set(x, y, STONE);
+        }
+        
+        // Застывание от воды (новая механика) - увеличен шанс
+        if (checkWaterNearby(x, y) && random.chance(P_0_5)) {
+            grid.set(x, y, STONE);
+        }
+        
+        // Нерушимая стена не реагирует на лаву
+        if (checkUnbreakableNearby(x, y)) {
+            // Ничего не происходит
+        }
+    }
+    
+    private void updateFire(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, -1)) return;
+        
+        if (random.chance(P_0_3)) {
+            int dx = random.nextInt(3) - 1;
+            if (tryMove(x, y, dx, -1)) return;
+        }
+        
+        checkCombustibleMaterials(x, y, random);
+        
+        if (random.chance(P_0_1)) {
+            createSmokeAround(x, y, random);
+        }
+        
+        // Нагрев металлов огнем
+        heatMetal(x, y, IRON, MOLTEN_IRON, P_0_3, random);
+        heatMetal(x, y, GOLD, MOLTEN_GOLD, P_0_2, random);
+        heatMetal(x, y, COPPER, MOLTEN_COPPER, P_0_4, random);
+        
+        // Нагрев урана
+        if (checkUraniumNearby(x, y) && random.chance(P_0_1)) {
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nx = x + dx;
+                    int ny = y + dy;
+                    if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                        grid.get(nx, ny) == URANIUM) {
+                        grid.addHeat(nx, ny, 1);
+                        if (grid.heat(nx, ny) > 50) {
+                            createNuclearExplosion(nx, ny);
+                            grid.set(nx, ny, EMPTY);
+                        }
+                    }
+                }
+            }
+        }
+        
+        // Нерушимая стена не горит
+        if (checkUnbreakableNearby(x, y)) {
+            // Ничего не происходит
+        }
+        
+        // Время горения огня
+        if (grid.fireLife(x, y) > 0) {
+            grid.addFireLife(x, y, -1);
+        } else {
+            if (random.chance(P_0_03)) {
+                grid.set(x, y, EMPTY);
+            }
+        }
+    }
+    
+    private void updateEarth(int x, int y) {
+        if (tryMove(x, y, 0, 1)) return;
+    }
+    
+    private void updateSmoke(int x, int y, Rng random) {
+        if (y > 0 && grid.get(x, y - 1) == EMPTY) {
+            grid.set(x, y, EMPTY);
+            grid.set(x, y - 1, SMOKE);
+            return;
+        }
+        
+        if (random.chance(P_0_4)) {
+            int dx = random.nextBoolean() ? 1 : -1;
+            int newX = x + dx;
+            if (newX >= 0 && newX < cols && grid.get(newX, y) == EMPTY) {
+                grid.set(x, y, EMPTY);
+                grid.set(newX, y, SMOKE);
+                return;
+            }
+        }
+        
+        if (random.chance(P_0_03)) {
+            grid.set(x, y, EMPTY);
+        }
+    }
+    
+    private void updateSeed(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        
+        if (y < rows - 1) {
+            int below = grid.get(x, y + 1);
+            if (below == EARTH) {
+                boolean hasWater = checkWaterNearby(x, y);
+                int growthChance = hasWater ? P_0_02 : P_0_005;
+                
+                if (random.chance(growthChance)) {
+                    grid.set(x, y, GRASS);
+                }
+            }
+        }
+    }
+    
+    private void updateGrass(int x, int y, Rng random) {
+        if (y > 0) {
+            boolean hasEarthBelow = (y < rows - 1) && (grid.get(x, y + 1) == EARTH || grid.get(x, y + 1) == GRASS);
+            boolean hasWater = checkWaterNearby(x, y);
+            
+            if (hasEarthBelow && grid.get(x, y - 1) == EMPTY) {
+                int growthChance = hasWater ? P_0_001 : P_0_0002;
+                if (random.chance(growthChance)) {
+                    grid.set(x, y - 1, GRASS);
+                }
+            }
+        }
+        
+        if (random.chance(P_0_001)) {
+            int[][] directions = {{1, 0}, {-1, 0}, {0, 1}};
+            for (int[] dir : directions) {
+                int nx = x + dir[0];
+                int ny = y + dir[1];
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                    if (grid.get(nx, ny) == EARTH) {
+                        boolean hasWater = checkWaterNearby(nx, ny);
+                        if (hasWater || random.chance(P_0_3)) {
+                            grid.set(nx, ny, GRASS);
+                        }
+                    }
+                }
+            }
+        }
+        
+        if (checkFireNearby(x, y) && random.chance(P_0_02)) {
+            grid.set(x, y, FIRE);
+            grid.setFireLife(x, y, 30);
+            createSmokeAround(x, y, random);
+        }
+    }
+    
+    private void updateWood(int x, int y, Rng random) {
+        if (checkFireNearby(x, y) && random.chance(P_0_01)) {
+            grid.set(x, y, FIRE);
+            grid.setFireLife(x, y, 80);
+            createSmokeAround(x, y, random);
+        }
+    }
+    
+    private void updateIce(int x, int y, Rng random) {
+        if (y < rows - 1 && grid.get(x, y + 1) == WATER) {
+            keepAwake(x, y);
+            if (random.chance(P_0_1)) {
+                grid.set(x, y, WATER);
+                grid.set(x, y + 1, ICE);
+                return;
+            }
+        }
+        
+        if (checkFireNearby(x, y) || checkLavaNearby(x, y)) {
+            grid.set(x, y, WATER);
+            return;
+        }
+        
+        if (y < rows - 1 && (grid.get(x, y + 1) == LAVA || grid.get(x, y + 1) == OIL)) {
+            keepAwake(x, y);
+            if (random.chance(P_0_05)) {
+                grid.set(x, y, grid.get(x, y + 1));
+                grid.set(x, y + 1, ICE);
+            }
+        }
+    }
+    
+    private void updateOil(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        if (checkFireNearby(x, y) && random.chance(P_0_3)) {
+            grid.set(x, y, FIRE);
+            grid.setFireLife(x, y, 40);
+            createSmokeAround(x, y, random);
+            for (int i = -1; i <= 1; i++) {
+                for (int j = -1; j <= 1; j++) {
+                    int nx = x + i;
+                    int ny = y + j;
+                    if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                        grid.get(nx, ny) == OIL) {
+                        grid.set(nx, ny, FIRE);
+                        grid.setFireLife(nx, ny, 40);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void updateIron(int x, int y, Rng random) {
+        // Охлаждение расплавленного железа
+        if (checkLiquidNitrogenNearby(x, y) && random.chance(P_0_05)) {
+            if (grid.heat(x, y) > 0) {
+                grid.addHeat(x, y, -1);
+            }
+        }
+    }
+    
+    private void updateNitrogen(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        // Застывание лавы (увеличили шанс)
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                    if (grid.get(nx, ny) == LAVA && random.chance(P_0_8)) {
+                        grid.set(nx, ny, STONE);
+                    }
+                    // Застывание расплавленных металлов
+                    if ((grid.get(nx, ny) == MOLTEN_IRON || 
+                         grid.get(nx, ny) == MOLTEN_GOLD || 
+                         grid.get(nx, ny) == MOLTEN_COPPER) && random.chance(P_0_1)) {
+                        if (grid.get(nx, ny) == MOLTEN_IRON) grid.set(nx, ny, IRON);
+                        if (grid.get(nx, ny) == MOLTEN_GOLD) grid.set(nx, ny, GOLD);
+                        if (grid.get(nx, ny) == MOLTEN_COPPER) grid.set(nx, ny, COPPER);
+                        grid.setHeat(nx, ny, 0);
+                    }
+                    // Заморозка воды
+                    if (grid.get(nx, ny) == WATER && random.chance(P_0_1)) {
+                        grid.set(nx, ny, ICE);
+                    }
+                    // Заморозка кислоты
+                    if (grid.get(nx, ny) == ACID && random.chance(P_0_05)) {
+                        grid.set(nx, ny, ICE);
+                    }
+                }
+            }
+        }
+        
+        // Испарение азота
+        if (random.chance(P_0_02)) {
+            grid.set(x, y, EMPTY);
+        }
+    }
+    
+    private void updateAcid(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        // Растворение большинства материалов (кроме нерушимой стены и резины)
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                    int target = grid.get(nx, ny);
+                    if (target != EMPTY && target != UNBREAKABLE && target != RUBBER && 
+                        target != ACID && random.chance(P_0_3)) {
+                        grid.set(nx, ny, EMPTY);
+                    }
+                }
+            }
+        }
+        
+        // Нерушимая стена не реагирует на кислоту
+        if (checkUnbreakableNearby(x, y)) {
+            // Ничего не происходит
+        }
+    }
+    
+    private void updateGlass(int x, int y, Rng random) {
+        // Может плавиться от лавы
+        if (checkLavaNearby(x, y) && random.chance(P_0_05)) {
+            grid.set(x, y, LAVA);
+        }
+    }
+    
+    private void updateDynamite(int x, int y, Rng random) {
+        if (checkFireNearby(x, y) || checkLavaNearby(x, y)) {
+            createExplosion(x, y, 8);
+            grid.set(x, y, EMPTY);
+        }
+    }
+    
+    private void updateGold(int x, int y, Rng random) {
+        // Охлаждение
+        if (checkLiquidNitrogenNearby(x, y) && random.chance(P_0_05)) {
+            if (grid.heat(x, y) > 0) {
+                grid.addHeat(x, y, -1);
+            }
+        }
+    }
+    
+    private void updateCopper(int x, int y, Rng random) {
+        // Охлаждение
+        if (checkLiquidNitrogenNearby(x, y) && random.chance(P_0_05)) {
+            if (grid.heat(x, y) > 0) {
+                grid.addHeat(x, y, -1);
+            }
+        }
+    }
+    
+    private void updateSalt(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryMoveDiagonal(x, y, random)) return;
+        
+        // Растворение в воде
+        if (checkWaterNearby(x, y)) {
+            keepAwake(x, y);
+            if (random.chance(P_0_1)) {
+                grid.set(x, y, EMPTY);
+            }
+        } else {
+            rest(x, y);
+        }
+    }
+    
+    private void updateCement(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        
+        // Затвердевание при контакте с водой
+        if (checkWaterNearby(x, y)) {
+            keepAwake(x, y);
+            if (random.chance(P_0_01)) {
+                grid.set(x, y, STONE);
+            }
+        } else {
+            rest(x, y);
+        }
+    }
+    
+    private void updateRubber(int x, int y) {
+        if (tryMove(x, y, 0, 1)) return;
+        rest(x, y);
+    }
+    
+    private void updateGasoline(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        if (checkFireNearby(x, y) && random.chance(P_0_5)) {
+            grid.set(x, y, FIRE);
+            grid.setFireLife(x, y, 60);
+            createSmokeAround(x, y, random);
+            for (int i = -2; i <= 2; i++) {
+                for (int j = -2; j <= 2; j++) {
+                    int nx = x + i;
+                    int ny = y + j;
+                    if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                        grid.get(nx, ny) == GASOLINE) {
+                        grid.set(nx, ny, FIRE);
+                        grid.setFireLife(nx, ny, 60);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void updateMercury(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        if (y < rows - 1 && grid.get(x, y + 1) == WATER) {
+            keepAwake(x, y);
+            if (random.chance(P_0_1)) {
+                grid.set(x, y, WATER);
+                grid.set(x, y + 1, MERCURY);
+            }
+        }
+    }
+    
+    private void updateUranium(int x, int y, Rng random) {
+        // Постепенно нагревается сам по себе
+        if (random.chance(P_0_001)) {
+            grid.addHeat(x, y, 1);
+        }
+        
+        // Взрыв при перегреве
+        if (grid.heat(x, y) > 100) {
+            createNuclearExplosion(x, y);
+            grid.set(x, y, EMPTY);
+        }
+        
+        // Свечение при нагреве
+        if (grid.heat(x, y) > 50 && random.chance(P_0_1)) {
+            createFireAround(x, y, random);
+        }
+    }
+    
+    private void updateMoltenIron(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        // Охлаждение и застывание
+        if (checkLiquidNitrogenNearby(x, y) && random.chance(P_0_1)) {
+            grid.set(x, y, IRON);
+            grid.setHeat(x, y, 0);
+        } else if (random.chance(P_0_001)) {
+            grid.set(x, y, IRON);
+            grid.setHeat(x, y, 0);
+        }
+    }
+    
+    private void updateMoltenGold(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        // Охлаждение и застывание
+        if (checkLiquidNitrogenNearby(x, y) && random.chance(P_0_1)) {
+            grid.set(x, y, GOLD);
+            grid.setHeat(x, y, 0);
+        } else if (random.chance(P_0_001)) {
+            grid.set(x, y, GOLD);
+            grid.setHeat(x, y, 0);
+        }
+    }
+    
+    private void updateMoltenCopper(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        // Охлаждение и застывание
+        if (checkLiquidNitrogenNearby(x, y) && random.chance(P_0_1)) {
+            grid.set(x, y, COPPER);
+            grid.setHeat(x, y, 0);
+        } else if (random.chance(P_0_001)) {
+            grid.set(x, y, COPPER);
+            grid.setHeat(x, y, 0);
+        }
+    }
+    
+    private void updateMeat(int x, int y, Rng random) {
+        if (grid.decay(x, y) < 500) {
+            grid.addDecay(x, y, 1);
+        } else {
+            if (random.chance(P_0_005)) {
+                grid.set(x, y, ROTTEN_MEAT);
+                if (random.chance(P_0_3)) {
+                    createSmokeAround(x, y, random);
+                }
+            }
+        }
+        
+        if (checkFireNearby(x, y) && random.chance(P_0_01)) {
+            grid.set(x, y, FIRE);
+            grid.setFireLife(x, y, 50);
+        }
+    }
+    
+    private void updateRottenMeat(int x, int y, Rng random) {
+        if (checkFireNearby(x, y) && random.chance(P_0_05)) {
+            grid.set(x, y, FIRE);
+            grid.setFireLife(x, y, 60);
+            createSmokeAround(x, y, random);
+        }
+        
+        if (random.chance(P_0_001)) {
+            grid.set(x, y, EMPTY);
+            if (random.chance(P_0_5)) {
+                createSmokeAround(x, y, random);
+            }
+        }
+    }
+    
+    private void updatePumpkin(int x, int y, Rng random) {
+        if (checkExplosionNearby(x, y) || checkFireNearby(x, y) || checkLavaNearby(x, y) || 
+            checkAcidNearby(x, y)) {
+            if (random.chance(P_0_1)) {
+                grid.set(x, y, JUICE);
+                
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        int nx = x + dx;
+                        int ny = y + dy;
+                        if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                            grid.get(nx, ny) == EMPTY && random.chance(P_0_3)) {
+                            grid.set(nx, ny, PUMPKIN_SEED);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private void updateWatermelon(int x, int y, Rng random) {
+        if (checkExplosionNearby(x, y) || checkFireNearby(x, y) || checkLavaNearby(x, y) || 
+            checkAcidNearby(x, y)) {
+            if (random.chance(P_0_1)) {
+                grid.set(x, y, JUICE);
+                
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        int nx = x + dx;
+                        int ny = y + dy;
+                        if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                            grid.get(nx, ny) == EMPTY && random.chance(P_0_3)) {
+                            grid.set(nx, ny, WATERMELON_SEED);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private void updateJuice(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        if (random.chance(P_0_001)) {
+            grid.set(x, y, EMPTY);
+        }
+    }
+    
+    private void updatePumpkinSeed(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        
+        if (y < rows - 1) {
+            int below = grid.get(x, y + 1);
+            if (below == EARTH || below == GRASS) {
+                boolean hasWater = checkWaterNearby(x, y);
+                int growthChance = hasWater ? P_0_01 : P_0_002;
+                
+                if (random.chance(growthChance)) {
+                    if (y > 0 && grid.get(x, y - 1) == EMPTY) {
+                        grid.set(x, y - 1, PUMPKIN);
+                        grid.set(x, y, EMPTY);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void updateWatermelonSeed(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        
+        if (y < rows - 1) {
+            int below = grid.get(x, y + 1);
+            if (below == EARTH || below == GRASS) {
+                boolean hasWater = checkWaterNearby(x, y);
+                int growthChance = hasWater ? P_0_01 : P_0_002;
+                
+                if (random.chance(growthChance)) {
+                    if (y > 0 && grid.get(x, y - 1) == EMPTY) {
+                        grid.set(x, y - 1, WATERMELON);
+                        grid.set(x, y, EMPTY);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void updateAppleSeed(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        
+        if (y < rows - 1) {
+            int below = grid.get(x, y + 1);
+            if (below == EARTH || below == GRASS) {
+                boolean hasWater = checkWaterNearby(x, y);
+                int growthChance = hasWater ? P_0_008 : P_0_001;
+                
+                if (random.chance(growthChance)) {
+                    grid.set(x, y, WOOD);
+                }
+            }
+        }
+    }
+    
+    private void updateCrudeOil(int x, int y, Rng random) {
+        if (random.chance(P_0_7) && tryMove(x, y, 0, 1)) return;
+        if (random.chance(P_0_5) && tryFlow(x, y, random)) return;
+        
+        if (checkFireNearby(x, y) && random.chance(P_0_4)) {
+            grid.set(x, y, FIRE);
+            grid.setFireLife(x, y, 80);
+            createSmokeAround(x, y, random);
+            
+            for (int i = -1; i <= 1; i++) {
+                for (int j = -1; j <= 1; j++) {
+                    int nx = x + i;
+                    int ny = y + j;
+                    if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                        grid.get(nx, ny) == CRUDE_OIL && random.chance(P_0_6)) {
+                        grid.set(nx, ny, FIRE);
+                        grid.setFireLife(nx, ny, 80);
+                    }
+                }
+            }
+        }
+        
+        if ((checkFireNearby(x, y) || checkLavaNearby(x, y)) && random.chance(P_0_01)) {
+            grid.set(x, y, GASOLINE);
+        }
+    }
+    
+    private void updateGas(int x, int y, Rng random) {
+        // Газ теперь синий и поднимается вверх
+        if (tryMove(x, y, 0, -1)) return;
+        
+        if (random.chance(P_0_6)) {
+            int dx = random.nextInt(3) - 1;
+            if (tryMove(x, y, dx, -1)) return;
+        }
+        
+        // Газ легко воспламеняется
+        if (checkFireNearby(x, y) && random.chance(P_0_8)) {
+            createExplosion(x, y, 5);
+            grid.set(x, y, EMPTY);
+        }
+        
+        // Газ рассеивается со временем
+        if (random.chance(P_0_05)) {
+            grid.set(x, y, EMPTY);
+        }
+        
+        // Газ может превращаться обратно в сжиженный газ при охлаждении
+        if (checkLiquidNitrogenNearby(x, y) && random.chance(P_0_1)) {
+            grid.set(x, y, LIQUEFIED_GAS);
+        }
+    }
+    
+    private void updateLiquefiedGas(int x, int y, Rng random) {
+        if (tryMove(x, y, 0, 1)) return;
+        if (tryFlow(x, y, random)) return;
+        
+        // Сжиженный газ испаряется в газ
+        if (random.chance(P_0_02)) {
+            grid.set(x, y, GAS);
+        }
+        
+        // Сжиженный газ очень взрывоопасен
+        if (checkFireNearby(x, y) && random.chance(P_0_9)) {
+            createExplosion(x, y, 8);
+            grid.set(x, y, EMPTY);
+        }
+    }
+    
+    private void updateCoal(int x, int y, Rng random) {
+        // Уголь - твердый материал, может гореть долко и выделять тепло
+        if (checkFireNearby(x, y) && random.chance(P_0_02)) {
+            // Уголь загорается
+            grid.setHeat(x, y, 100); // Уголь сильно нагревается при горении
+            if (random.chance(P_0_01)) {
+                // Создаем огонь вокруг угля
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        int nx = x + dx;
+                        int ny = y + dy;
+                        if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                            grid.get(nx, ny) == EMPTY && random.chance(P_0_3)) {
+                            grid.set(nx, ny, FIRE);
+                            grid.setFireLife(nx, ny, 40);
+                        }
+                    }
+                }
+            }
+        }
+        
+        // Горящий уголь постепенно остывает и сгорает
+        if (grid.heat(x, y) > 0) {
+            keepAwake(x, y);
+            grid.addHeat(x, y, -1);
+            if (grid.heat(x, y) == 0) {
+                // Уголь полностью сгорает
+                grid.set(x, y, EMPTY);
+                if (random.chance(P_0_5)) {
+                    createSmokeAround(x, y, random);
+                }
+            }
+        }
+        
+        // Уголь может нагревать соседние металлы
+        if (grid.heat(x, y) > 50) {
+            heatMetal(x, y, IRON, MOLTEN_IRON, P_0_1, random);
+            heatMetal(x, y, GOLD, MOLTEN_GOLD, P_0_08, random);
+            heatMetal(x, y, COPPER, MOLTEN_COPPER, P_0_12, random);
+        }
+    }
+    
+    // Вспомогательные методы
+    
+    // Клетка ждет случайного события или остывает - не даем ее чанку уснуть
+    private void keepAwake(int x, int y) {
+        grid.chunks.markChanged(x, y);
+    }
+    
+    // Сыпучая клетка не сдвинулась и ни на что не реагирует: после SLEEP_TICKS таких тиков
+    // она засыпает и пропускается физикой, пока рядом ничего не изменится (см. CellGrid)
+    private void rest(int x, int y) {
+        grid.rest(grid.index(x, y));
+    }
+    
+    private boolean tryMove(int x, int y, int dx, int dy) {
+        int newX = x + dx;
+        int newY = y + dy;
+        
+        if (newX >= 0 && newX < cols && newY >= 0 && newY < rows && 
+            grid.get(newX, newY) == EMPTY) {
+            // Частица переезжает одним словом вместе с нагревом, огнем и гниением
+            grid.move(x, y, newX, newY);
+            return true;
+        }
+        return false;
+    }
+    
+    private boolean tryMoveDiagonal(int x, int y, Rng random) {
+        boolean left = x > 0 && grid.get(x - 1, y + 1) == EMPTY;
+        boolean right = x < cols - 1 && grid.get(x + 1, y + 1) == EMPTY;
+        
+        if (left && right) {
+            if (random.nextBoolean()) {
+                return tryMove(x, y, -1, 1);
+            } else {
+                return tryMove(x, y, 1, 1);
+            }
+        } else if (left) {
+            return tryMove(x, y, -1, 1);
+        } else if (right) {
+            return tryMove(x, y, 1, 1);
+        }
+        return false;
+    }
+    
+    private boolean tryFlow(int x, int y, Rng random) {
+        if (ElementType.has(grid.get(x, y), ElementType.LEVELS)) {
+            // Тело уже выровнено: клетка стоит, пока рядом не откроется место ниже поверхности
+            if (liquids.isSettled(x, y)) {
+                if (!liquids.hasLowerOpening(x, y)) return false;
+                liquids.unsettle(x, y);
+            }
+            liquids.requestLevelling(x, y);
+        }
+        
+        // Случайно выбираем, в какую сторону пробовать первой (без массива на каждый вызов)
+        int first = random.nextBoolean() ? 1 : -1;
+        
+        if (tryMove(x, y, first, 0)) return true;
+        if (tryMove(x, y, -first, 0)) return true;
+        
+        if (y > 0 && tryMove(x, y, first, -1)) return true;
+        if (y > 0 && tryMove(x, y, -first, -1)) return true;
+        
+        return false;
+    }
+    
+    private void heatMetal(int x, int y, int solidMetal, int moltenMetal, int threshold, Rng random) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                    if (grid.get(nx, ny) == solidMetal && random.chance(threshold)) {
+                        grid.addHeat(nx, ny, 1);
+                        if (grid.heat(nx, ny) > 30) {
+                            grid.set(nx, ny, moltenMetal);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    // Проверки соседей читают один бит из масок соседства (см. NeighbourMasks)
+    private boolean checkWaterNearby(int x, int y) {
+        return grid.masks.has5(x, y, NeighbourMasks.WATER);
+    }
+    
+    private boolean checkFireNearby(int x, int y) {
+        return grid.masks.has3(x, y, NeighbourMasks.FIRE | NeighbourMasks.LAVA);
+    }
+    
+    private boolean checkLavaNearby(int x, int y) {
+        return grid.masks.has3(x, y, NeighbourMasks.LAVA);
+    }
+    
+    private boolean checkLiquidNitrogenNearby(int x, int y) {
+        return grid.masks.has3(x, y, NeighbourMasks.NITROGEN);
+    }
+    
+    private boolean checkUraniumNearby(int x, int y) {
+        return grid.masks.has3(x, y, NeighbourMasks.URANIUM);
+    }
+    
+    private boolean checkUnbreakableNearby(int x, int y) {
+        return grid.masks.has3(x, y, NeighbourMasks.UNBREAKABLE);
+    }
+    
+    private boolean checkExplosionNearby(int x, int y) {
+        return effects.inFlash(x, y);
+    }
+    
+    private boolean checkAcidNearby(int x, int y) {
+        return grid.masks.has3(x, y, NeighbourMasks.ACID);
+    }
+    
+    private void checkLavaInteraction(int x, int y, int element, int result) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                    if ((grid.get(x, y) == LAVA && grid.get(nx, ny) == element) ||
+                        (grid.get(x, y) == element && grid.get(nx, ny) == LAVA)) {
+                        grid.set(x, y, result);
+                        grid.set(nx, ny, result);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void checkFireInteraction(int x, int y, int element, int result) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                    if ((grid.get(x, y) == FIRE && grid.get(nx, ny) == element) ||
+                        (grid.get(x, y) == element && grid.get(nx, ny) == FIRE)) {
+                        grid.set(x, y, result);
+                        grid.set(nx, ny, result);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void checkCombustibleMaterials(int x, int y, Rng random) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                    int neighbor = grid.get(nx, ny);
+                    if (ElementType.has(neighbor, ElementType.FLAMMABLE) && random.chance(P_0_1)) {
+                        grid.set(nx, ny, FIRE);
+                        grid.setFireLife(nx, ny, 50);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void createFireAround(int x, int y, Rng random) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                    grid.get(nx, ny) == EMPTY && random.chance(P_0_3)) {
+                    grid.set(nx, ny, FIRE);
+                    grid.setFireLife(nx, ny, 40);
+                }
+            }
+        }
+    }
+    
+    private void createSmokeAround(int x, int y, Rng random) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if (nx >= 0 && nx < cols && ny >= 0 && ny < rows && 
+                    grid.get(nx, ny) == EMPTY && random.chance(P_0_4)) {
+                    grid.set(nx, ny, SMOKE);
+                }
+            }
+        }
+    }
+    
+    // Взрывы идут только в потоке симуляции (из параллельной фазы они откладываются),
+    // поэтому берут simulationRandom
+    private void createExplosion(int x, int y, int radius) {
+        if (inParallelPhase) {
+            pendingExplosions.add(new int[] {x, y, radius, 0});
+            return;
+        }
+        effects.addFlash(x, y, radius);
+        effects.addSparks(x, y, radius * 3, radius * 0.15f);
+        
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dy = -radius; dy <= radius; dy++) {
+                if (dx * dx + dy * dy <= radius * radius) {
+                    int nx = x + dx;
+                    int ny = y + dy;
+                    if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                        // Нерушимая стена, камень, песчаник и металлы не разрушаются
+                        int element = grid.get(nx, ny);
+                        if (!ElementType.has(element, ElementType.BLAST_RESISTANT)) {
+                            effects.scatterDebris(nx, ny, x, y, element);
+                            grid.set(nx, ny, EMPTY);
+                        }
+                        if (dx * dx + dy * dy >= (radius - 1) * (radius - 1)) {
+                            if (simulationRandom.chance(P_0_3)) {
+                                grid.set(nx, ny, FIRE);
+                                grid.setFireLife(nx, ny, 60);
+                            }
+                            if (simulationRandom.chance(P_0_5)) {
+                                createSmokeAround(nx, ny, simulationRandom);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private void createNuclearExplosion(int x, int y) {
+        if (inParallelPhase) {
+            pendingExplosions.add(new int[] {x, y, 15, 1});
+            return;
+        }
+        effects.addFlash(x, y, 15);
+        effects.addSparks(x, y, 120, 2.5f);
+        
+        for (int dx = -10; dx <= 10; dx++) {
+            for (int dy = -10; dy <= 10; dy++) {
+                if (dx * dx + dy * dy <= 100) {
+                    int nx = x + dx;
+                    int ny = y + dy;
+                    if (nx >= 0 && nx < cols && ny >= 0 && ny < rows) {
+                        // Нерушимая стена не разрушается даже ядерным взрывом
+                        int element = grid.get(nx, ny);
+                        if (!ElementType.has(element, ElementType.INDESTRUCTIBLE)) {
+                            effects.scatterDebris(nx, ny, x, y, element);
+                            grid.set(nx, ny, EMPTY);
+                        }
+                        if (dx * dx + dy * dy >= 64) {
+                            if (simulationRandom.chance(P_0_5)) {
+                                grid.set(nx, ny, FIRE);
+                                grid.setFireLife(nx, ny, 100);
+                            }
+                            if (simulationRandom.chance(P_0_7)) {
+                                createSmokeAround(nx, ny, simulationRandom);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private void updateEffects() {
+        effects.update(cols, rows);
+        
+        // Пока взрыв виден, тыквы и арбузы в его радиусе должны успеть на него среагировать
+        for (int i = 0; i < effects.flashCount; i++) {
+            int x = (int) effects.x[i];
+            int y = (int) effects.y[i];
+            int radius = effects.radius[i];
+            grid.chunks.markArea(x - radius, y - radius, x + radius, y + radius);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+// Камера: какая часть мира видна на экране и в каком масштабе.
+// Масштаб - степень двойки: 2^zoom пикселей экрана на клетку (от 1/8 до 16).
+// При отрицательном zoom одна точка экрана накрывает несколько клеток, и отрисовка берет
+// уменьшенный уровень детализации (см. WorldRenderer), а не перебирает каждую клетку.
+//
+// Объект неизменяемый: окно заменяет его целиком, а поток отрисовки берет ссылку один раз
+// за кадр, так что весь кадр рисуется с одной и той же камерой.
+public final class Viewport {
+    public static final int MIN_ZOOM = -3;
+    public static final int MAX_ZOOM = 4;
+    // Самый грубый уровень детализации: пиксель уровня k - блок 2^k x 2^k клеток
+    public static final int MAX_LOD = -MIN_ZOOM;
+
+    // Клетка мира в левом верхнем углу экрана (дробная при сдвиге мышью)
+    public final double x;
+    public final double y;
+    public final int zoom;
+
+    public Viewport(double x, double y, int zoom) {
+        this.x = x;
+        this.y = y;
+        this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+    }
+
+    // Пикселей экрана на клетку
+    public double scale() {
+        return Math.scalb(1.0, zoom);
+    }
+
+    public int lodLevel() {
+        return zoom < 0 ? -zoom : 0;
+    }
+
+    public double cellX(double screenX) {
+        return x + screenX / scale();
+    }
+
+    public double cellY(double screenY) {
+        return y + screenY / scale();
+    }
+
+    public double screenX(double cellX) {
+        return (cellX - x) * scale();
+    }
+
+    public double screenY(double cellY) {
+        return (cellY - y) * scale();
+    }
+
+    // Меняет масштаб на steps ступеней так, чтобы клетка под курсором осталась на месте
+    public Viewport zoomAt(int screenX, int screenY, int steps) {
+        int newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom + steps));
+        if (newZoom == zoom) return this;
+        double newScale = Math.scalb(1.0, newZoom);
+        return new Viewport(cellX(screenX) - screenX / newScale, cellY(screenY) - screenY / newScale, newZoom);
+    }
+
+    // Сдвиг вслед за мышью на dx, dy пикселей
+    public Viewport panBy(int dx, int dy) {
+        return new Viewport(x - dx / scale(), y - dy / scale(), zoom);
+    }
+
+    // Не дает увести мир с экрана: хотя бы половина экрана остается над миром
+    public Viewport clamp(int cols, int rows, int width, int height) {
+        double visibleCols = width / scale();
+        double visibleRows = height / scale();
+        double cx = Math.max(-visibleCols / 2, Math.min(cols - visibleCols / 2, x));
+        double cy = Math.max(-visibleRows / 2, Math.min(rows - visibleRows / 2, y));
+        if (cx == x && cy == y) return this;
+        return new Viewport(cx, cy, zoom);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Viewport)) return false;
+        Viewport view = (Viewport) other;
+        return view.x == x && view.y == y && view.zoom == zoom;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(x) * 31 * 31 + Double.hashCode(y) * 31 + zoom;
+    }
+}
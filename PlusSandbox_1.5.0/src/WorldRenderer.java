@@ -0,0 +1,462 @@
+import java.awt.Graphics;
+import java.util.Arrays;
+
+// Отрисовка мира через растр. Цвета пишутся числами прямо в массив DataBufferInt,
+// а на экран картинка выводится одним drawImage. Раньше на каждую клетку был свой
+// setColor + fillRect и новый Color, что при заполненном экране стоило дороже физики.
+//
+// Картинка без альфа-канала: полупрозрачные элементы заранее смешиваются с черным фоном,
+// как это делал Swing при заливке поверх черной панели. Готовые цвета со всеми эффектами
+// берутся из ColorPalette, поэтому цикл отрисовки ничего не выделяет в куче.
+//
+// Рисование в два шага:
+//   1. Кэш цветов мира: уровень 0 - цвет каждой клетки, уровень k (до Viewport.MAX_LOD) -
+//      один цвет на блок 2^k x 2^k клеток, цвет преобладающего в блоке элемента.
+//      Уровень k собирается из четырех пикселей уровня k-1, так что он почти ничего не стоит.
+//      Обновляются только видимые плитки, изменившиеся с прошлого раза (см. CellGrid);
+//      невидимые догоняются, когда на них посмотрят.
+//   2. Кадр размером с экран: каждый пиксель экрана берется из того уровня кэша,
+//      который соответствует масштабу камеры (см. Viewport). Поэтому работа на кадр
+//      ограничена размером экрана, а не мира, даже когда весь большой мир виден целиком.
+//
+// Экран поделен на плитки SCREEN_TILE x SCREEN_TILE. Плитка экрана получает новую версию,
+// когда под ней изменился мир или сдвинулась камера; в кадр пересобираются только
+// устаревшие плитки, а окно просит Swing перерисовать только их. Спокойная сцена или пауза
+// почти ничего не стоят. Огонь мерцает только пока меняется.
+//
+// Частицы эффектов (EffectPool) рисуются поверх мира прямо в кадр. Плитки экрана под ними
+// получают новую версию и в этом кадре, и в следующем, поэтому следы частиц стираются
+// сами собой при пересборке плиток, а отдельный оверлей в окне не нужен.
+//
+// Если включена запись (FrameRecorder), каждый опубликованный кадр еще и копируется ей.
+//
+// Кадр рисует поток симуляции между тиками, а выводит EDT. Кадры передаются через
+// FrameExchange (тройной буфер), поэтому EDT не видит наполовину нарисованный кадр.
+// У каждого из трех кадров свои версии плиток экрана: вернувшийся к симуляции кадр
+// догоняется только по плиткам, изменившимся с тех пор.
+public class WorldRenderer {
+    private static final int TILE_SIZE = CellGrid.TILE_SIZE;
+    private static final int SCREEN_TILE = 64;
+    // Цвет за краем мира
+    private static final int OUTSIDE_COLOR = 0x141414;
+    // Вспышка взрыва (прежний new Color(255, 165, 0, ...))
+    private static final int FLASH_COLOR = 0xFFA500;
+
+    private final int cols;
+    private final int rows;
+    private final int width;
+    private final int height;
+    private final FrameExchange frames;
+    // Только для мерцания огня, к физике отношения не имеет
+    private final Rng flicker = new Rng(System.nanoTime());
+
+    // Кэш мира по уровням детализации: цвет и элемент каждого пикселя уровня
+    private final int[][] levelColors = new int[Viewport.MAX_LOD + 1][];
+    private final byte[][] levelElements = new byte[Viewport.MAX_LOD + 1][];
+    private final int[] levelCols = new int[Viewport.MAX_LOD + 1];
+    private final int[] levelRows = new int[Viewport.MAX_LOD + 1];
+    // Плитка мира в кэше нарисована по всем отметкам младше этой
+    private final int[] tileCachedEpochs;
+
+    private final int screenTileCols;
+    private final int screenTileRows;
+    private final int[] screenTileVersions;
+    private int updateNumber = 0;
+    // Камера, под которую посчитаны sourceColumns и sourceRows
+    private Viewport view;
+    // Из какого столбца и строки уровня кэша берется каждый столбец и строка экрана (-1 - за краем мира)
+    private final int[] sourceColumns;
+    private final int[] sourceRows;
+    // Плитки экрана, на которых частицы нарисованы в этот раз и в прошлый
+    private boolean[] effectTiles;
+    private boolean[] previousEffectTiles;
+
+    // Запись кадров на диск (null - не пишем)
+    private FrameRecorder recorder;
+
+    // Грязные прямоугольники последнего update в пикселях экрана: x, y, ширина, высота
+    private int[] dirtyRects = new int[64];
+    private int dirtyCount;
+
+    // width x height - размер экрана в пикселях
+    public WorldRenderer(int cols, int rows, int width, int height) {
+        this.cols = cols;
+        this.rows = rows;
+        this.width = width;
+        this.height = height;
+        for (int level = 0; level <= Viewport.MAX_LOD; level++) {
+            levelCols[level] = (cols + (1 << level) - 1) >> level;
+            levelRows[level] = (rows + (1 << level) - 1) >> level;
+            levelColors[level] = new int[levelCols[level] * levelRows[level]];
+            levelElements[level] = new byte[levelCols[level] * levelRows[level]];
+        }
+        int tileCols = (cols + TILE_SIZE - 1) / TILE_SIZE;
+        int tileRows = (rows + TILE_SIZE - 1) / TILE_SIZE;
+        tileCachedEpochs = new int[tileCols * tileRows];
+        Arrays.fill(tileCachedEpochs, Integer.MIN_VALUE);
+
+        screenTileCols = (width + SCREEN_TILE - 1) / SCREEN_TILE;
+        screenTileRows = (height + SCREEN_TILE - 1) / SCREEN_TILE;
+        screenTileVersions = new int[screenTileCols * screenTileRows];
+        sourceColumns = new int[width];
+        sourceRows = new int[height];
+        effectTiles = new boolean[screenTileVersions.length];
+        previousEffectTiles = new boolean[screenTileVersions.length];
+        this.frames = new FrameExchange(width, height, screenTileVersions.length);
+    }
+
+    // Перерисовывает весь видимый мир заново, не глядя на отметки плиток, и публикует кадр (поток симуляции)
+    public void render(SandboxEngine engine, Viewport view) {
+        Arrays.fill(tileCachedEpochs, Integer.MIN_VALUE);
+        this.view = null;
+        update(engine, view);
+    }
+
+    // Обновляет кэш по изменившимся видимым плиткам, дорисовывает в свободный кадр
+    // устаревшие плитки экрана и публикует его (поток симуляции).
+    // Плитки экрана, изменившиеся в этот раз, склеиваются по строкам в прямоугольники -
+    // их окно просит перерисовать. Возвращает число прямоугольников
+    public int update(SandboxEngine engine, Viewport view) {
+        CellGrid grid = engine.grid;
+        FrameExchange.Frame frame = frames.back();
+        int epoch = grid.advanceTileEpoch();
+        updateNumber++;
+
+        boolean viewChanged = !view.equals(this.view);
+        if (viewChanged) {
+            this.view = view;
+            mapScreenToLevel(view);
+            Arrays.fill(screenTileVersions, updateNumber);
+        }
+
+        // Видимые плитки мира
+        int tx0 = Math.max(0, (int) Math.floor(view.cellX(0)) / TILE_SIZE);
+        int ty0 = Math.max(0, (int) Math.floor(view.cellY(0)) / TILE_SIZE);
+        int tx1 = Math.min(grid.tileCols - 1, (int) Math.floor(view.cellX(width)) / TILE_SIZE);
+        int ty1 = Math.min(grid.tileRows - 1, (int) Math.floor(view.cellY(height)) / TILE_SIZE);
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int tile = ty * grid.tileCols + tx;
+                if (grid.tileStamp(tile) < tileCachedEpochs[tile]) continue;
+                int x0 = tx * TILE_SIZE;
+                int y0 = ty * TILE_SIZE;
+                int x1 = Math.min(cols, x0 + TILE_SIZE);
+                int y1 = Math.min(rows, y0 + TILE_SIZE);
+                cacheArea(engine, x0, y0, x1, y1);
+                // Запись, шедшая одновременно с переключением номера, могла получить старый номер,
+                // поэтому такую плитку проверим еще раз в следующем кадре
+                tileCachedEpochs[tile] = epoch;
+                if (!viewChanged) {
+                    markScreenArea(view, x0, y0, x1, y1);
+                }
+            }
+        }
+
+        markEffectTiles(engine.effects, view);
+        composeFrame(frame, view.lodLevel());
+        drawEffects(engine.effects, frame, view);
+        collectDirtyRects();
+        if (recorder != null) {
+            recorder.offer(frame.pixels);
+        }
+        frames.publish();
+        return dirtyCount;
+    }
+
+    // Каждый опубликованный кадр будет отдаваться recorder (поток симуляции), null - выключить запись
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // Последний готовый кадр для вывода на экран (EDT)
+    public FrameExchange.Frame latestFrame() {
+        return frames.latest();
+    }
+
+    // Грязный прямоугольник номер n из последнего update: x, y, ширина, высота в пикселях экрана
+    public int dirtyX(int n) {
+        return dirtyRects[n * 4];
+    }
+
+    public int dirtyY(int n) {
+        return dirtyRects[n * 4 + 1];
+    }
+
+    public int dirtyWidth(int n) {
+        return dirtyRects[n * 4 + 2];
+    }
+
+    public int dirtyHeight(int n) {
+        return dirtyRects[n * 4 + 3];
+    }
+
+    private void addDirtyRect(int x, int y, int width, int height) {
+        if (dirtyCount * 4 == dirtyRects.length) {
+            dirtyRects = Arrays.copyOf(dirtyRects, dirtyRects.length * 2);
+        }
+        dirtyRects[dirtyCount * 4] = x;
+        dirtyRects[dirtyCount * 4 + 1] = y;
+        dirtyRects[dirtyCount * 4 + 2] = width;
+        dirtyRects[dirtyCount * 4 + 3] = height;
+        dirtyCount++;
+    }
+
+    // Клетки x0..x1-1, y0..y1-1 и их блоки на всех уровнях детализации.
+    // Границы плиток кратны 2^MAX_LOD, поэтому блоки не выходят за плитку
+    private void cacheArea(SandboxEngine engine, int x0, int y0, int x1, int y1) {
+        CellGrid grid = engine.grid;
+        int[] lightGrid = engine.lightGrid;
+        int[] colors = levelColors[0];
+        byte[] elements = levelElements[0];
+        for (int y = y0; y < y1; y++) {
+            int rowStart = y * cols;
+            for (int x = x0; x < x1; x++) {
+                int i = rowStart + x;
+                int element = grid.get(i);
+                elements[i] = (byte) element;
+                if (element == SandboxEngine.EMPTY) {
+                    colors[i] = 0;
+                    continue;
+                }
+
+                // Вариант цвета: мерцание огня, нагрев металлов, урана и угля или гниение мяса
+                int variant = 0;
+                if (element == SandboxEngine.FIRE) {
+                    variant = flicker.nextInt(ColorPalette.FIRE_VARIANTS);
+                } else if (ElementType.has(element, ElementType.SHOWS_HEAT)) {
+                    variant = ColorPalette.heatVariant(grid.heat(x, y));
+                } else if (element == SandboxEngine.MEAT) {
+                    variant = ColorPalette.decayVariant(grid.decay(x, y));
+                }
+
+                colors[i] = ColorPalette.color(element, variant, lightGrid[i]);
+            }
+        }
+
+        for (int level = 1; level <= Viewport.MAX_LOD; level++) {
+            reduceLevel(level, x0 >> level, y0 >> level,
+                    (x1 + (1 << level) - 1) >> level, (y1 + (1 << level) - 1) >> level);
+        }
+    }
+
+    // Пиксели уровня level в прямоугольнике [x0, x1) x [y0, y1) из четверок пикселей уровня ниже
+    private void reduceLevel(int level, int x0, int y0, int x1, int y1) {
+        int[] srcColors = levelColors[level - 1];
+        byte[] srcElements = levelElements[level - 1];
+        int srcCols = levelCols[level - 1];
+        int srcRows = levelRows[level - 1];
+        int[] dstColors = levelColors[level];
+        byte[] dstElements = levelElements[level];
+        int dstCols = levelCols[level];
+
+        for (int y = y0; y < y1; y++) {
+            int top = (y * 2) * srcCols;
+            // У нечетного края мира нижней или правой половины блока нет - берем ту же клетку еще раз
+            int bottom = Math.min(y * 2 + 1, srcRows - 1) * srcCols;
+            for (int x = x0; x < x1; x++) {
+                int left = x * 2;
+                int right = Math.min(left + 1, srcCols - 1);
+                int a = top + left;
+                int b = top + right;
+                int c = bottom + left;
+                int d = bottom + right;
+                int winner = dominant(srcElements[a], srcElements[b], srcElements[c], srcElements[d]);
+                int source = winner == 0 ? a : winner == 1 ? b : winner == 2 ? c : d;
+                dstColors[y * dstCols + x] = srcColors[source];
+                dstElements[y * dstCols + x] = srcElements[source];
+            }
+        }
+    }
+
+    // Какой из четырех пикселей представляет блок: самый частый элемент, пустота проигрывает ничьи
+    private static int dominant(byte a, byte b, byte c, byte d) {
+        int countA = 1 + (a == b ? 1 : 0) + (a == c ? 1 : 0) + (a == d ? 1 : 0);
+        int countB = 1 + (b == a ? 1 : 0) + (b == c ? 1 : 0) + (b == d ? 1 : 0);
+        int countC = 1 + (c == a ? 1 : 0) + (c == b ? 1 : 0) + (c == d ? 1 : 0);
+        int countD = 1 + (d == a ? 1 : 0) + (d == b ? 1 : 0) + (d == c ? 1 : 0);
+        // Очки: частота * 2 + 1 за непустой элемент, при равенстве побеждает первый
+        int scoreA = countA * 2 + (a != SandboxEngine.EMPTY ? 1 : 0);
+        int scoreB = countB * 2 + (b != SandboxEngine.EMPTY ? 1 : 0);
+        int scoreC = countC * 2 + (c != SandboxEngine.EMPTY ? 1 : 0);
+        int scoreD = countD * 2 + (d != SandboxEngine.EMPTY ? 1 : 0);
+        int best = 0;
+        int bestScore = scoreA;
+        if (scoreB > bestScore) {
+            best = 1;
+            bestScore = scoreB;
+        }
+        if (scoreC > bestScore) {
+            best = 2;
+            bestScore = scoreC;
+        }
+        if (scoreD > bestScore) {
+            best = 3;
+        }
+        return best;
+    }
+
+    // Столбцы и строки уровня кэша, которые попадают в центры пикселей экрана
+    private void mapScreenToLevel(Viewport view) {
+        int level = view.lodLevel();
+        for (int sx = 0; sx < width; sx++) {
+            int cellX = (int) Math.floor(view.cellX(sx + 0.5));
+            sourceColumns[sx] = cellX >= 0 && cellX < cols ? cellX >> level : -1;
+        }
+        for (int sy = 0; sy < height; sy++) {
+            int cellY = (int) Math.floor(view.cellY(sy + 0.5));
+            sourceRows[sy] = cellY >= 0 && cellY < rows ? cellY >> level : -1;
+        }
+    }
+
+    // Новая версия для плиток экрана, под которыми лежат клетки x0..x1-1, y0..y1-1
+    private void markScreenArea(Viewport view, int x0, int y0, int x1, int y1) {
+        int sx0 = Math.max(0, (int) Math.floor(view.screenX(x0)) / SCREEN_TILE);
+        int sy0 = Math.max(0, (int) Math.floor(view.screenY(y0)) / SCREEN_TILE);
+        int sx1 = Math.min(screenTileCols - 1, (int) Math.ceil(view.screenX(x1)) / SCREEN_TILE);
+        int sy1 = Math.min(screenTileRows - 1, (int) Math.ceil(view.screenY(y1)) / SCREEN_TILE);
+        for (int sy = sy0; sy <= sy1; sy++) {
+            for (int sx = sx0; sx <= sx1; sx++) {
+                screenTileVersions[sy * screenTileCols + sx] = updateNumber;
+            }
+        }
+    }
+
+    // Новая версия для плиток экрана под частицами и под частицами прошлого раза (их надо стереть)
+    private void markEffectTiles(EffectPool effects, Viewport view) {
+        boolean[] swap = previousEffectTiles;
+        previousEffectTiles = effectTiles;
+        effectTiles = swap;
+        Arrays.fill(effectTiles, false);
+
+        double scale = view.scale();
+        for (int i = 0; i < effects.count; i++) {
+            double reach = effects.kind[i] == EffectPool.FLASH ? effects.radius[i] * scale + 1 : Math.max(1, scale);
+            double cx = view.screenX(effects.x[i]);
+            double cy = view.screenY(effects.y[i]);
+            int sx0 = Math.max(0, (int) Math.floor((cx - reach) / SCREEN_TILE));
+            int sy0 = Math.max(0, (int) Math.floor((cy - reach) / SCREEN_TILE));
+            int sx1 = Math.min(screenTileCols - 1, (int) Math.floor((cx + reach) / SCREEN_TILE));
+            int sy1 = Math.min(screenTileRows - 1, (int) Math.floor((cy + reach) / SCREEN_TILE));
+            for (int sy = sy0; sy <= sy1; sy++) {
+                for (int sx = sx0; sx <= sx1; sx++) {
+                    effectTiles[sy * screenTileCols + sx] = true;
+                }
+            }
+        }
+        for (int st = 0; st < screenTileVersions.length; st++) {
+            if (effectTiles[st] || previousEffectTiles[st]) {
+                screenTileVersions[st] = updateNumber;
+            }
+        }
+    }
+
+    // Частицы поверх уже собранного кадра. Вспышка - оранжевый круг, тающий вместе с жизнью,
+    // искра и обломок - непрозрачная клетка своего цвета
+    private void drawEffects(EffectPool effects, FrameExchange.Frame frame, Viewport view) {
+        double scale = view.scale();
+        int cellPixels = Math.max(1, (int) scale);
+        for (int i = 0; i < effects.count; i++) {
+            int cx = (int) view.screenX(effects.x[i]);
+            int cy = (int) view.screenY(effects.y[i]);
+            if (effects.kind[i] == EffectPool.FLASH) {
+                int alpha = effects.life[i] * 256 / EffectPool.FLASH_LIFE;
+                int r = (int) (effects.radius[i] * scale * effects.life[i] / EffectPool.FLASH_LIFE);
+                fillCircle(frame.pixels, cx, cy, r, FLASH_COLOR, alpha);
+            } else {
+                fillSquare(frame.pixels, cx - cellPixels / 2, cy - cellPixels / 2, cellPixels, effects.color[i]);
+            }
+        }
+    }
+
+    private void fillCircle(int[] pixels, int cx, int cy, int r, int rgb, int alpha) {
+        int y0 = Math.max(0, cy - r);
+        int y1 = Math.min(height - 1, cy + r);
+        for (int y = y0; y <= y1; y++) {
+            int dy = y - cy;
+            int half = (int) Math.sqrt(r * r - dy * dy);
+            int x0 = Math.max(0, cx - half);
+            int x1 = Math.min(width - 1, cx + half);
+            int row = y * width;
+            for (int x = x0; x <= x1; x++) {
+                pixels[row + x] = blend(pixels[row + x], rgb, alpha);
+            }
+        }
+    }
+
+    private void fillSquare(int[] pixels, int x0, int y0, int size, int rgb) {
+        int x1 = Math.min(width, x0 + size);
+        int y1 = Math.min(height, y0 + size);
+        for (int y = Math.max(0, y0); y < y1; y++) {
+            int row = y * width;
+            for (int x = Math.max(0, x0); x < x1; x++) {
+                pixels[row + x] = rgb;
+            }
+        }
+    }
+
+    // Смешивание двух RGB-цветов, alpha от 0 (только dst) до 256 (только src)
+    private static int blend(int dst, int src, int alpha) {
+        int rb = dst & 0xFF00FF;
+        int g = dst & 0x00FF00;
+        rb += (((src & 0xFF00FF) - rb) * alpha) >> 8;
+        g += (((src & 0x00FF00) - g) * alpha) >> 8;
+        return (rb & 0xFF00FF) | (g & 0x00FF00);
+    }
+
+    // Пересобирает в кадре плитки экрана, версия которых устарела
+    private void composeFrame(FrameExchange.Frame frame, int level) {
+        int[] colors = levelColors[level];
+        int stride = levelCols[level];
+        int[] pixels = frame.pixels;
+        for (int st = 0; st < screenTileVersions.length; st++) {
+            if (frame.screenTileVersions[st] == screenTileVersions[st]) continue;
+            int x0 = (st % screenTileCols) * SCREEN_TILE;
+            int y0 = (st / screenTileCols) * SCREEN_TILE;
+            int x1 = Math.min(width, x0 + SCREEN_TILE);
+            int y1 = Math.min(height, y0 + SCREEN_TILE);
+            for (int sy = y0; sy < y1; sy++) {
+                int row = sourceRows[sy];
+                int out = sy * width;
+                if (row < 0) {
+                    Arrays.fill(pixels, out + x0, out + x1, OUTSIDE_COLOR);
+                    continue;
+                }
+                int rowStart = row * stride;
+                for (int sx = x0; sx < x1; sx++) {
+                    int column = sourceColumns[sx];
+                    pixels[out + sx] = column < 0 ? OUTSIDE_COLOR : colors[rowStart + column];
+                }
+            }
+            frame.screenTileVersions[st] = screenTileVersions[st];
+        }
+    }
+
+    // Плитки экрана, получившие новую версию в этом update, склеенные по строкам
+    private void collectDirtyRects() {
+        dirtyCount = 0;
+        for (int sy = 0; sy < screenTileRows; sy++) {
+            int y0 = sy * SCREEN_TILE;
+            int y1 = Math.min(height, y0 + SCREEN_TILE);
+            int runStart = -1;
+            for (int sx = 0; sx <= screenTileCols; sx++) {
+                boolean changed = sx < screenTileCols && screenTileVersions[sy * screenTileCols + sx] == updateNumber;
+                if (changed) {
+                    if (runStart < 0) runStart = sx;
+                } else if (runStart >= 0) {
+                    int x0 = runStart * SCREEN_TILE;
+                    addDirtyRect(x0, y0, Math.min(width, sx * SCREEN_TILE) - x0, y1 - y0);
+                    runStart = -1;
+                }
+            }
+        }
+    }
+
+    // Выводит последний готовый кадр (EDT)
+    public void draw(Graphics g) {
+        draw(g, latestFrame());
+    }
+
+    public void draw(Graphics g, FrameExchange.Frame frame) {
+        g.drawImage(frame.image, 0, 0, null);
+    }
+}